@@ -0,0 +1,130 @@
+package no.ks.fiks.ssbAPI.APIService;
+
+import no.ks.fiks.ssbAPI.builder.MetadataBuilder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <h1>QueryCellLimit</h1>
+ * <p>
+ * QueryCellLimit learns how many cells one query to a table can have. The API refuses queries that are too big with
+ * 403, but the limit isn't published per table, so {@link MetadataBuilder#MAX_CELLS} is only a guess. Every table query
+ * tells the limit how many cells it had, which limit it was planned with, and whether it was refused. The limit keeps
+ * the biggest query that succeeded, the biggest planned limit that was filled, and the smallest query that was
+ * refused. A planned limit is filled when a query planned with it has at least seven eighths of its cells, since the
+ * planners rarely fit the limit exactly. {@link #limit()} is then:
+ * <ul>
+ *     <li>{@link MetadataBuilder#MAX_CELLS} until a query has filled it</li>
+ *     <li>an eighth more than the biggest filled limit or success while nothing has been refused, to find out if the
+ *     limit is higher</li>
+ *     <li>halfway between the biggest success and the smallest refusal after that, until they are within 1% of each
+ *     other, and then the biggest success</li>
+ * </ul>
+ * The newest result wins, so if a query bigger than a refused one succeeds, or smaller than a successful one is
+ * refused, the older result is dropped.
+ * <p>
+ * The limits are shared by all SsbApiCall objects in the JVM, by table URL, from {@link #forTable(String)}.
+ */
+
+public class QueryCellLimit {
+
+    private static final Map<String, QueryCellLimit> TABLES = new ConcurrentHashMap<>();
+
+    private final long defaultLimit;
+    private long largestSuccess;
+    private long largestFilledLimit;
+    private long smallestFailure = Long.MAX_VALUE;
+
+    /**
+     * Constructor for a limit that hasn't learned anything yet.
+     *
+     * @param defaultLimit This is the limit used until a query of this size has succeeded.
+     */
+    public QueryCellLimit(long defaultLimit) {
+        if (defaultLimit < 1)
+            throw new IllegalArgumentException("defaultLimit must be at least 1, was " + defaultLimit);
+        this.defaultLimit = defaultLimit;
+    }
+
+    /**
+     * <h1>forTable</h1>
+     *
+     * @param tableUrl This is the URL the table queries are sent to.
+     * @return Returns the limit learned for the table, shared by all SsbApiCall objects in the JVM.
+     */
+    public static QueryCellLimit forTable(String tableUrl) {
+        return TABLES.computeIfAbsent(tableUrl, url -> new QueryCellLimit(MetadataBuilder.MAX_CELLS));
+    }
+
+    /**
+     * <h1>succeeded</h1>
+     *
+     * @param cells        This is the number of cells of a query that succeeded.
+     * @param plannedLimit This is the limit the query was planned with.
+     */
+    public synchronized void succeeded(long cells, long plannedLimit) {
+        largestSuccess = Math.max(largestSuccess, cells);
+        if (cells >= plannedLimit - plannedLimit / 8)
+            largestFilledLimit = Math.max(largestFilledLimit, plannedLimit);
+        if (smallestFailure <= cells)
+            smallestFailure = Long.MAX_VALUE;
+    }
+
+    /**
+     * <h1>failed</h1>
+     *
+     * @param cells This is the number of cells of a query that was refused as too big.
+     */
+    public synchronized void failed(long cells) {
+        smallestFailure = Math.min(smallestFailure, cells);
+        if (largestSuccess >= cells)
+            largestSuccess = cells - 1;
+        if (largestFilledLimit >= cells)
+            largestFilledLimit = cells - 1;
+    }
+
+    /**
+     * <h1>isTooBig</h1>
+     *
+     * @param cells This is the number of cells of a query.
+     * @return Returns true if a query this big, or smaller, has been refused.
+     */
+    public synchronized boolean isTooBig(long cells) {
+        return cells >= smallestFailure;
+    }
+
+    /**
+     * <h1>limit</h1>
+     *
+     * @return Returns the number of cells to plan the queries of the table with.
+     */
+    public synchronized long limit() {
+        if (smallestFailure == Long.MAX_VALUE) {
+            long known = Math.max(largestSuccess, largestFilledLimit);
+            return known < defaultLimit ? defaultLimit : known + known / 8;
+        }
+        long gap = smallestFailure - 1 - largestSuccess;
+        if (gap <= smallestFailure / 100)
+            return Math.max(1, largestSuccess);
+        return largestSuccess + gap / 2;
+    }
+
+    /**
+     * <h1>getLargestSuccess</h1>
+     *
+     * @return Returns the number of cells of the biggest query that succeeded, or 0.
+     */
+    public synchronized long getLargestSuccess() {
+        return largestSuccess;
+    }
+
+    /**
+     * <h1>getSmallestFailure</h1>
+     *
+     * @return Returns the number of cells of the smallest query that was refused, or Long.MAX_VALUE.
+     */
+    public synchronized long getSmallestFailure() {
+        return smallestFailure;
+    }
+}
@@ -0,0 +1,176 @@
+package no.ks.fiks.ssbAPI.APIService;
+
+import no.ks.fiks.ssbAPI.metadataApi.SsbMetadataVariables;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * <h1>QuerySelection</h1>
+ * <p>
+ * QuerySelection is the PxWeb selection filter for one variable in a table query. Listing every value with the
+ * {@code item} filter makes the query for a region variable several kilobytes, so where possible the server is asked
+ * to do the selection:
+ * <ul>
+ *     <li>{@code all} with {@code *} when every value of the variable is queried</li>
+ *     <li>{@code top} with the number of periods when the latest periods of 'Tid' are queried</li>
+ *     <li>{@code agg:<aggregation>} with the groups of an aggregation, like municipalities summed up to counties</li>
+ * </ul>
+ * {@link #forVariable(SsbMetadataVariables, QuerySelection)} picks the selection for a variable of a chunk, so
+ * {@code all} and {@code top} are used without setting anything. The server resolves {@code all} and {@code top}
+ * against its current metadata, so they are only used when the metadata is known to be current, see
+ * {@link #forVariable(SsbMetadataVariables, QuerySelection, boolean)}. An aggregation is set per variable with
+ * {@link SsbApiCall#setSelection(String, QuerySelection)}.
+ */
+
+public class QuerySelection {
+
+    private static final QuerySelection ALL = new QuerySelection("all", List.of("*"));
+
+    private final String filter;
+    private final List<String> values;
+
+    private QuerySelection(String filter, List<String> values) {
+        this.filter = filter;
+        this.values = values;
+    }
+
+    /**
+     * <h1>item</h1>
+     *
+     * @param values This is the values to query.
+     * @return Returns a selection of exactly these values.
+     */
+    public static QuerySelection item(List<String> values) {
+        if (values.isEmpty())
+            throw new IllegalArgumentException("item needs at least one value");
+        return new QuerySelection("item", List.copyOf(values));
+    }
+
+    /**
+     * <h1>all</h1>
+     *
+     * @return Returns a selection of every value of the variable.
+     */
+    public static QuerySelection all() {
+        return ALL;
+    }
+
+    /**
+     * <h1>top</h1>
+     *
+     * @param count This is the number of latest periods to query.
+     * @return Returns a selection of the latest periods.
+     */
+    public static QuerySelection top(int count) {
+        if (count < 1)
+            throw new IllegalArgumentException("top needs at least one period, was " + count);
+        return new QuerySelection("top", List.of(String.valueOf(count)));
+    }
+
+    /**
+     * <h1>agg</h1>
+     *
+     * @param aggregation This is the name of the aggregation in PxWeb, without the 'agg:' prefix.
+     * @param groups      This is the groups of the aggregation to query.
+     * @return Returns a selection of the groups of the aggregation.
+     */
+    public static QuerySelection agg(String aggregation, List<String> groups) {
+        if (groups.isEmpty())
+            throw new IllegalArgumentException("agg needs at least one group");
+        return new QuerySelection("agg:" + aggregation, List.copyOf(groups));
+    }
+
+    /**
+     * <h1>forVariable</h1>
+     * <p>
+     * This method picks the selection for a variable in a chunk. Aggregations keep their filter with the groups in the
+     * chunk, a variable with all its values is selected with {@code all}, the latest periods of 'Tid' with {@code top},
+     * and everything else is listed with {@code item}.
+     *
+     * @param variable This is the variable of the chunk.
+     * @param override This is the selection set for the variable, or null.
+     * @return Returns the selection to send, or null if the variable has no values and is left out of the query.
+     */
+    public static QuerySelection forVariable(SsbMetadataVariables variable, QuerySelection override) {
+        return forVariable(variable, override, true);
+    }
+
+    /**
+     * <h1>forVariable</h1>
+     * <p>
+     * This method is {@link #forVariable(SsbMetadataVariables, QuerySelection)}, but only uses {@code all} and
+     * {@code top} if the metadata is the server's current metadata. Metadata from a cache can be missing a period or
+     * region the server has added since, and then {@code all} or {@code top} would give other values than the chunk.
+     *
+     * @param variable         This is the variable of the chunk.
+     * @param override         This is the selection set for the variable, or null.
+     * @param serverSelections This is true if the metadata was fetched or revalidated from the server.
+     * @return Returns the selection to send, or null if the variable has no values and is left out of the query.
+     */
+    public static QuerySelection forVariable(SsbMetadataVariables variable, QuerySelection override, boolean serverSelections) {
+        if (variable.size() == 0)
+            return null;
+        if (override != null && override.isAggregation())
+            return new QuerySelection(override.filter, variable.getValues());
+        if (serverSelections && variable.selectsAll())
+            return ALL;
+        if (serverSelections && variable.getCode().equals("Tid") && variable.selectsLast())
+            return top(variable.size());
+        return new QuerySelection("item", variable.getValues());
+    }
+
+    /**
+     * <h1>apply</h1>
+     * <p>
+     * This method changes the metadata variable to the values the server will answer with for this selection, so the
+     * chunks and the decoded results match the query.
+     *
+     * @param variable This is the metadata variable.
+     * @return Returns the variable with the values of the selection.
+     */
+    SsbMetadataVariables apply(SsbMetadataVariables variable) {
+        switch (filter) {
+            case "all":
+                return variable;
+            case "top":
+                int count = Math.min(Integer.parseInt(values.get(0)), variable.size());
+                BitSet latest = new BitSet();
+                latest.set(variable.size() - count, variable.size());
+                variable.retain(latest);
+                return variable;
+            case "item":
+                variable.filterValuesAndValueTexts(variable.getCode(), values);
+                return variable;
+            default:
+                return new SsbMetadataVariables(variable.getCode(), variable.getText(), values, values);
+        }
+    }
+
+    /**
+     * <h1>isAggregation</h1>
+     *
+     * @return Returns true if this is an 'agg:' selection.
+     */
+    public boolean isAggregation() {
+        return filter.startsWith("agg:");
+    }
+
+    /**
+     * <h1>getFilter</h1>
+     *
+     * @return Returns the PxWeb filter, like 'item', 'all', 'top' or 'agg:...'.
+     */
+    public String getFilter() {
+        return filter;
+    }
+
+    /**
+     * <h1>getValues</h1>
+     *
+     * @return Returns the values of the filter.
+     */
+    public List<String> getValues() {
+        return values;
+    }
+}
@@ -0,0 +1,25 @@
+package no.ks.fiks.ssbAPI.APIService;
+
+import java.io.IOException;
+
+/**
+ * <h1>QueryTooBigException</h1>
+ * <p>
+ * Thrown when the API answers a query with 403, which it does when the query asks for more cells than the API allows.
+ * {@link SsbApiCall} catches it for table queries and splits the query, so it's only seen if a query with a single
+ * value of every variable is refused.
+ */
+
+public class QueryTooBigException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Initializes the exception.
+     *
+     * @param message This is the message of the exception.
+     */
+    public QueryTooBigException(String message) {
+        super(message);
+    }
+}
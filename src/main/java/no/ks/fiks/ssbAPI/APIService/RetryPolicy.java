@@ -0,0 +1,249 @@
+package no.ks.fiks.ssbAPI.APIService;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>RetryPolicy</h1>
+ * <p>
+ * RetryPolicy decides if and when {@link SsbApiCall} retries a call that failed because of an error on the SSB side.
+ * The wait between retries grows exponentially from {@link #getBaseDelay()} up to {@link #getMaxDelay()}, with random
+ * jitter so concurrent queries don't retry in lockstep. If the server sends a Retry-After header, that wait is used
+ * instead.
+ * <p>
+ * Each job (one table call, or one metadata or classification call) also has a time budget for the waits between
+ * retries. The waits of every call in the job are added up, and when the next wait would pass the budget, the call
+ * fails instead of waiting. Time spent on queries that didn't need a retry, or waiting on the rate limiter, doesn't
+ * count, so a big table with many chunks only runs out of budget if it really retries a lot. The class can be
+ * extended to change which errors are retried or how long to wait.
+ */
+
+public class RetryPolicy {
+
+    private static final Set<Integer> RETRYABLE_RESPONSE_CODES = Set.of(400, 429, 500, 502, 503, 504);
+    private static final RetryPolicy DEFAULT = new RetryPolicy(5, Duration.ofSeconds(2), Duration.ofSeconds(60),
+            0.5, Duration.ofMinutes(15));
+
+    private final int maxRetries;
+    private final Duration baseDelay;
+    private final Duration maxDelay;
+    private final double jitter;
+    private final Duration timeBudget;
+
+    /**
+     * Initializes the policy.
+     *
+     * @param maxRetries This is how many times a single call is retried before it fails.
+     * @param baseDelay  This is the wait before the first retry, it doubles for each retry after that.
+     * @param maxDelay   This is the longest wait between two retries.
+     * @param jitter     This is the share of the wait that is random, between 0 (no jitter) and 1 (wait anywhere
+     *                   between zero and the full wait).
+     * @param timeBudget This is the total time the calls of a job can spend waiting between retries, added up.
+     */
+    public RetryPolicy(int maxRetries, Duration baseDelay, Duration maxDelay, double jitter, Duration timeBudget) {
+        if (maxRetries < 0)
+            throw new IllegalArgumentException("maxRetries can't be negative, was " + maxRetries);
+        if (jitter < 0 || jitter > 1)
+            throw new IllegalArgumentException("jitter must be between 0 and 1, was " + jitter);
+        this.maxRetries = maxRetries;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.jitter = jitter;
+        this.timeBudget = timeBudget;
+    }
+
+    /**
+     * <h1>defaultPolicy</h1>
+     *
+     * @return Returns the policy SsbApiCall uses unless another one is set: 5 retries starting at 2 seconds, at most
+     * 60 seconds between retries, 50 % jitter and a 15 minute budget per job.
+     */
+    public static RetryPolicy defaultPolicy() {
+        return DEFAULT;
+    }
+
+    /**
+     * <h1>noRetries</h1>
+     *
+     * @return Returns a policy that never retries.
+     */
+    public static RetryPolicy noRetries() {
+        return new RetryPolicy(0, Duration.ZERO, Duration.ZERO, 0, Duration.ZERO);
+    }
+
+    /**
+     * <h1>startJob</h1>
+     * <p>
+     * Starts the time budget for a new job, every call in the job should use the returned object.
+     *
+     * @return Returns the job.
+     */
+    public Job startJob() {
+        return new Job();
+    }
+
+    /**
+     * <h1>isRetryable</h1>
+     *
+     * @param responseCode This is the http response code from the API.
+     * @return Returns true if the response code is caused by something on the SSB side that might work if retried.
+     */
+    public boolean isRetryable(int responseCode) {
+        return RETRYABLE_RESPONSE_CODES.contains(responseCode);
+    }
+
+    /**
+     * <h1>delayMillis</h1>
+     * <p>
+     * This method calculates how long to wait before a retry. If the server sent a Retry-After header that is used,
+     * if not the delay is {@code baseDelay * 2^retry}, capped at maxDelay, with the jitter share of it randomized.
+     *
+     * @param retry      This is the number of retries done before this one, starting at 0.
+     * @param retryAfter This is the wait from the Retry-After header, if the server sent one.
+     * @return Returns the number of milliseconds to wait.
+     */
+    public long delayMillis(int retry, Optional<Duration> retryAfter) {
+        if (retryAfter.isPresent())
+            return Math.max(0, retryAfter.get().toMillis());
+        long delay = baseDelay.toMillis() << Math.min(retry, 30);
+        if (delay < 0 || delay > maxDelay.toMillis())
+            delay = maxDelay.toMillis();
+        long randomPart = (long) (delay * jitter);
+        if (randomPart == 0)
+            return delay;
+        return delay - randomPart + ThreadLocalRandom.current().nextLong(randomPart + 1);
+    }
+
+    /**
+     * <h1>parseRetryAfter</h1>
+     * <p>
+     * This method parses the value of a Retry-After header, which is either a number of seconds or an HTTP date.
+     *
+     * @param headerValue This is the value of the header, if the server sent one.
+     * @return Returns the wait, or an empty Optional if there is no header or it can't be parsed.
+     */
+    public static Optional<Duration> parseRetryAfter(Optional<String> headerValue) {
+        if (headerValue.isEmpty())
+            return Optional.empty();
+        String value = headerValue.get().trim();
+        try {
+            return Optional.of(Duration.ofSeconds(Long.parseLong(value)));
+        } catch (NumberFormatException nfe) {
+            try {
+                ZonedDateTime retryAt = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+                Duration wait = Duration.between(ZonedDateTime.now(retryAt.getZone()), retryAt);
+                return Optional.of(wait.isNegative() ? Duration.ZERO : wait);
+            } catch (DateTimeParseException dtpe) {
+                return Optional.empty();
+            }
+        }
+    }
+
+    /**
+     * <h1>getMaxRetries</h1>
+     *
+     * @return Returns how many times a single call is retried before it fails.
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * <h1>getBaseDelay</h1>
+     *
+     * @return Returns the wait before the first retry.
+     */
+    public Duration getBaseDelay() {
+        return baseDelay;
+    }
+
+    /**
+     * <h1>getMaxDelay</h1>
+     *
+     * @return Returns the longest wait between two retries.
+     */
+    public Duration getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * <h1>getJitter</h1>
+     *
+     * @return Returns the share of the wait that is random.
+     */
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * <h1>getTimeBudget</h1>
+     *
+     * @return Returns the total time the calls of a job can spend waiting between retries, added up.
+     */
+    public Duration getTimeBudget() {
+        return timeBudget;
+    }
+
+    /**
+     * <h1>Job</h1>
+     * <p>
+     * Keeps track of the time budget for one job, as the milliseconds its calls have waited between retries. It is
+     * safe to share between the threads running the job.
+     */
+    public class Job {
+
+        private final AtomicLong waitedMillis = new AtomicLong();
+
+        private Job() {
+        }
+
+        /**
+         * <h1>awaitRetry</h1>
+         * <p>
+         * This method waits before a retry, or fails if the call has been retried too many times or the wait would
+         * pass the time budget of the job. The wait is counted against the budget before it starts, so concurrent
+         * calls can't pass the budget together.
+         *
+         * @param retry      This is the number of retries done before this one, starting at 0.
+         * @param retryAfter This is the wait from the Retry-After header, if the server sent one.
+         * @param error      This is a description of the error, used in the exception message.
+         * @throws ConnectException       Throws ConnectException if the call has been retried too many times.
+         * @throws InterruptedIOException Throws InterruptedIOException if the thread is interrupted while waiting.
+         * @throws IOException            Throws IOException if the wait would pass the time budget of the job.
+         */
+        public void awaitRetry(int retry, Optional<Duration> retryAfter, String error) throws IOException {
+            if (retry >= maxRetries)
+                throw new ConnectException("Tried " + (retry + 1) + " times, SSB might be down, error: " + error);
+            long delay = delayMillis(retry, retryAfter);
+            if (waitedMillis.addAndGet(delay) > timeBudget.toMillis()) {
+                waitedMillis.addAndGet(-delay);
+                throw new IOException("Retry time budget of " + timeBudget.toSeconds() + " seconds used up, error: " + error);
+            }
+            System.err.println(error + ", retrying in " + delay + " ms");
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to retry: " + error);
+            }
+        }
+
+        /**
+         * <h1>getWaitedMillis</h1>
+         *
+         * @return Returns the milliseconds the calls of the job have waited between retries, added up.
+         */
+        public long getWaitedMillis() {
+            return waitedMillis.get();
+        }
+    }
+}
@@ -1,21 +1,35 @@
 package no.ks.fiks.ssbAPI.APIService;
 
 import no.ks.fiks.ssbAPI.builder.MetadataBuilder;
+import no.ks.fiks.ssbAPI.builder.TableChunk;
+import no.ks.fiks.ssbAPI.cache.DiskResponseCache;
+import no.ks.fiks.ssbAPI.cache.TtlCache;
 import no.ks.fiks.ssbAPI.klassApi.SsbKlass;
 import no.ks.fiks.ssbAPI.metadataApi.SsbMetadata;
 import no.ks.fiks.ssbAPI.metadataApi.SsbMetadataVariables;
-import org.apache.commons.io.IOUtils;
+import no.ks.fiks.ssbAPI.tableApi.JsonStat2Decoder;
+import no.ks.fiks.ssbAPI.tableApi.ResponseFormat;
+import no.ks.fiks.ssbAPI.tableApi.SparseTableCube;
+import no.ks.fiks.ssbAPI.tableApi.SsbTableCube;
+import no.ks.fiks.ssbAPI.tableApi.TableCubeMerger;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.ConnectException;
-import java.net.HttpURLConnection;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * <h1>SSB API calls</h1>
@@ -34,12 +48,29 @@ import java.util.*;
 
 public class SsbApiCall {
 
+    private static final TtlCache<String, SsbMetadata> METADATA_CACHE = new TtlCache<>(256, Duration.ofHours(1));
+    private static final TtlCache<String, SsbKlass> KLASS_CACHE = new TtlCache<>(64, Duration.ofHours(6));
+    private static final ExecutorService ASYNC_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "ssb-api-async");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private URL metadataUrl;
     private List<URL> klassListUrl;
     private SsbMetadata metadata;
     private SsbKlass klass;
     private int numberOfYears;
     private MetadataBuilder metadataBuilder;
+    private int maxConcurrentQueries = TableQueryExecutor.DEFAULT_CONCURRENCY;
+    private SsbRateLimiter rateLimiter = SsbRateLimiter.getShared();
+    private SsbHttpTransport transport = SsbHttpTransport.getDefault();
+    private RetryPolicy retryPolicy = RetryPolicy.defaultPolicy();
+    private DiskResponseCache diskCache;
+    private Map<String, List<String>> initialMetadataFilter;
+    private final Map<String, QuerySelection> selections = new LinkedHashMap<>();
+    private volatile ResponseFormat responseFormat = ResponseFormat.JSON_STAT2;
+    private boolean metadataFromServer;
 
     /**
      * <h1>SsbApiCall Constructor</h1>
@@ -48,23 +79,68 @@ public class SsbApiCall {
      * Then checks if classification codes was provided, if it was it will combine the url string with the code(s) provided
      * and the start year. It then adds the URL's to a List.
      * <p>
-     * It will then try to run metadataApiCall and klassApiCall.
+     * It will then try to run metadataApiCall and klassApiCall right away. Use {@link #builder()} to create an object
+     * without any network calls.
      *
      * @param metadataTableNumber This is the table number you want to query
      * @param numberOfYears       This is the number of years you wish to query for that table
      * @param classifications     This is the classification codes you wish to filter against.
-     * @see #metadataApiCall()
+     * @see #ensureMetadataLoaded()
      * @see #klassApiCall()
      */
 
     public SsbApiCall(String metadataTableNumber, int numberOfYears, Map<String, List<String>> metadataFilter, String... classifications) {
+        this.diskCache = DiskResponseCache.getDefault().orElse(null);
+        configure(metadataTableNumber, numberOfYears, metadataFilter, classifications);
+        try {
+            ensureMetadataLoaded();
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    /**
+     * Constructor used by {@link Builder}, which only records the configuration.
+     *
+     * @param builder This is the builder with the configuration.
+     */
+    private SsbApiCall(Builder builder) {
+        this.maxConcurrentQueries = builder.maxConcurrentQueries;
+        this.rateLimiter = builder.rateLimiter;
+        this.transport = builder.transport;
+        this.retryPolicy = builder.retryPolicy;
+        this.diskCache = builder.diskCacheSet ? builder.diskCache : DiskResponseCache.getDefault().orElse(null);
+        this.selections.putAll(builder.selections);
+        this.responseFormat = builder.responseFormat;
+        configure(builder.tableNumber, builder.numberOfYears, builder.metadataFilter, builder.classifications);
+    }
+
+    /**
+     * <h1>builder</h1>
+     *
+     * @return Returns a builder for an SsbApiCall object that doesn't make any network calls until it is used.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * <h1>configure</h1>
+     * <p>
+     * This method builds the metadata URL and the classification URLs, without any network calls.
+     *
+     * @param metadataTableNumber This is the table number you want to query, or null.
+     * @param numberOfYears       This is the number of years you wish to query for that table.
+     * @param metadataFilter      This is a Map of filters for the metadata of the first table, or null.
+     * @param classifications     This is the classification codes you wish to filter against.
+     */
+    private void configure(String metadataTableNumber, int numberOfYears, Map<String, List<String>> metadataFilter, String... classifications) {
         Optional<String> metadataTableNumberCheckNull = Optional.ofNullable(metadataTableNumber);
-        Optional<Map<String, List<String>>> filter = Optional.ofNullable(metadataFilter);
         this.numberOfYears = numberOfYears;
+        this.initialMetadataFilter = metadataFilter;
         try {
-            String urlMetadata = "https://data.ssb.no/api/v0/no/table/";
             if (metadataTableNumberCheckNull.isPresent())
-                this.metadataUrl = new URL(urlMetadata + metadataTableNumber);
+                this.metadataUrl = tableUrl(metadataTableNumber);
 
             if (classifications.length != 0) {
                 int urlKlassYear;
@@ -84,31 +160,61 @@ public class SsbApiCall {
         } catch (MalformedURLException mue) {
             mue.printStackTrace();
         }
-        try {
-            if (classifications.length != 0) {
-                klassApiCall();
-            }
-            if (filter.isPresent())
-                metadataApiCall(metadataFilter);
-            else
-                metadataApiCall();
-        } catch (IOException ioe) {
-            ioe.printStackTrace();
+    }
+
+    /**
+     * <h1>ensureKlassLoaded</h1>
+     * <p>
+     * This method runs klassApiCall the first time it is needed. The classification codes are then reused for every
+     * table queried with this object. The codes are fetched without holding the lock of this object, so the
+     * selections and the loaded table can be used meanwhile. Two threads may both fetch them the first time.
+     *
+     * @throws IOException Throws IOException if apiCall encounters an error when querying.
+     */
+    private void ensureKlassLoaded() throws IOException {
+        synchronized (this) {
+            if (klass != null || klassListUrl == null)
+                return;
         }
+        klassApiCall();
     }
 
     /**
-     * <h1>metadataApiCall</h1>
-     * This method creates a SsbMetadata object by calling {@link #apiCall(String, URL, String, int)}.
+     * <h1>ensureMetadataLoaded</h1>
+     * <p>
+     * This method fetches the metadata of the table the object was created with the first time it is needed, with the
+     * metadata filter it was created with. Like {@link #metadataApiCall(String)}, the metadata is fetched without
+     * holding the lock of this object and only set under it, and not if another table was set in the meantime.
      *
      * @throws IOException Throws IOException if apiCall encounters an error when querying.
-     * @see #apiCall(String, URL, String, int)
      */
+    private void ensureMetadataLoaded() throws IOException {
+        ensureKlassLoaded();
+        URL url;
+        Map<String, List<String>> metadataFilter;
+        synchronized (this) {
+            if (metadataBuilder != null || metadataUrl == null)
+                return;
+            url = metadataUrl;
+            metadataFilter = initialMetadataFilter;
+        }
+        FetchedMetadata fetched = fetchMetadata(url, metadataFilter);
+        synchronized (this) {
+            if (metadataBuilder == null)
+                setMetadata(url, fetched);
+        }
+    }
 
-    private void metadataApiCall() throws IOException {
-        metadata = new SsbMetadata(apiCall("metadata", metadataUrl, "", 0));
-        this.metadataBuilder = new MetadataBuilder(metadata, klass);
-        buildMetadata();
+    /**
+     * <h1>currentTable</h1>
+     *
+     * @return Returns the URL and chunks of the current table, so a table call isn't affected by changing table.
+     * @throws IOException Throws IOException if the metadata had to be loaded and apiCall encountered an error.
+     */
+    private TableSnapshot currentTable() throws IOException {
+        ensureMetadataLoaded();
+        return loadedTable().orElseThrow(
+                () -> new IllegalStateException("No table to query, run metadataApiCall with a table number first"));
     }
 
     /**
@@ -118,14 +224,13 @@ public class SsbApiCall {
      *
      * @param tableNumber This is the table number you want to query.
      * @throws IOException Throws IOException if apiCall encounters an error when querying.
-     * @see #apiCall(String, URL, String, int)
+     * @see #fetchMetadata(URL, Map)
      */
 
     public void metadataApiCall(String tableNumber) throws IOException {
-        metadataUrl = new URL("https://data.ssb.no/api/v0/no/table/" + tableNumber);
-        metadata = new SsbMetadata(apiCall("metadata", metadataUrl, "", 0));
-        this.metadataBuilder = new MetadataBuilder(metadata, klass);
-        buildMetadata();
+        ensureKlassLoaded();
+        URL url = tableUrl(tableNumber);
+        setMetadata(url, fetchMetadata(url, null));
     }
 
     /**
@@ -136,14 +241,13 @@ public class SsbApiCall {
      * @param tableNumber    This is the table number you want to query.
      * @param metadataFilter This is a Map of filters for the metadata.
      * @throws IOException Throws IOException if apiCall encounters an error when querying.
-     * @see #apiCall(String, URL, String, int)
+     * @see #fetchMetadata(URL, Map)
      */
 
     public void metadataApiCall(String tableNumber, Map<String, List<String>> metadataFilter) throws IOException {
-        metadataUrl = new URL("https://data.ssb.no/api/v0/no/table/" + tableNumber);
-        metadata = new SsbMetadata(apiCall("metadata", metadataUrl, "", 0), metadataFilter);
-        this.metadataBuilder = new MetadataBuilder(metadata, klass);
-        buildMetadata();
+        ensureKlassLoaded();
+        URL url = tableUrl(tableNumber);
+        setMetadata(url, fetchMetadata(url, metadataFilter));
     }
 
     /**
@@ -153,14 +257,127 @@ public class SsbApiCall {
      *
      * @param metadataFilter This is a Map of filters for the metadata.
      * @throws IOException Throws IOException if apiCall encounters an error when querying.
-     * @see #apiCall(String, URL, String, int)
+     * @see #fetchMetadata(URL, Map)
      */
     public void metadataApiCall(Map<String, List<String>> metadataFilter) throws IOException {
-        metadata = new SsbMetadata(apiCall("metadata", metadataUrl, "", 0), metadataFilter);
-        this.metadataBuilder = new MetadataBuilder(metadata, klass);
+        ensureKlassLoaded();
+        setMetadata(metadataUrl, fetchMetadata(metadataUrl, metadataFilter));
+    }
+
+    /**
+     * <h1>metadataApiCallAsync</h1>
+     * <p>
+     * Asynchronous version of {@link #metadataApiCall(String)}. The metadata is fetched on a background thread, and
+     * becomes the metadata of this object when the future completes.
+     *
+     * @param tableNumber This is the table number you want to query.
+     * @return Returns a future that completes with the new metadata.
+     */
+
+    public CompletableFuture<SsbMetadata> metadataApiCallAsync(String tableNumber) {
+        return metadataApiCallAsync(tableNumber, null);
+    }
+
+    /**
+     * <h1>metadataApiCallAsync</h1>
+     * <p>
+     * Asynchronous version of {@link #metadataApiCall(String, Map)}. The metadata is fetched on a background thread,
+     * and becomes the metadata of this object when the future completes. Since {@link #tableApiCallAsync()} works on
+     * the metadata it had when it was called, the metadata of the next table can be fetched while the previous table
+     * is still downloading.
+     *
+     * @param tableNumber    This is the table number you want to query.
+     * @param metadataFilter This is a Map of filters for the metadata, or null for no filter.
+     * @return Returns a future that completes with the new metadata.
+     */
+
+    public CompletableFuture<SsbMetadata> metadataApiCallAsync(String tableNumber, Map<String, List<String>> metadataFilter) {
+        return async(() -> {
+            ensureKlassLoaded();
+            URL url = tableUrl(tableNumber);
+            FetchedMetadata fetched = fetchMetadata(url, metadataFilter);
+            setMetadata(url, fetched);
+            return fetched.metadata;
+        });
+    }
+
+    /**
+     * <h1>fetchMetadata</h1>
+     * <p>
+     * This method creates a SsbMetadata object for the table, without changing this object. The unfiltered metadata
+     * is taken from the {@link #getMetadataCache()} if it's there, if not it queries the metadata API and adds the
+     * result to the cache. The returned object is always a copy, so it can be filtered and changed freely.
+     * <p>
+     * The metadata is from the server if it was queried now, or revalidated by the {@link DiskResponseCache}. Metadata
+     * from the cache or from the disk cache in offline mode can be older than the table on the server.
+     *
+     * @param url            This is the metadata URL of the table.
+     * @param metadataFilter This is a Map of filters for the metadata, or null for no filter.
+     * @return Returns the metadata, and if it is from the server.
+     * @throws IOException Throws IOException if apiCall encounters an error when querying.
+     */
+    private FetchedMetadata fetchMetadata(URL url, Map<String, List<String>> metadataFilter) throws IOException {
+        Optional<SsbMetadata> cached = METADATA_CACHE.get(url.toString());
+        SsbMetadata unfiltered;
+        boolean fromServer = cached.isEmpty() && (diskCache == null || !diskCache.isOffline());
+        if (cached.isPresent()) {
+            unfiltered = cached.get();
+        } else {
+            unfiltered = readApiCall(url, retryPolicy.startJob(), SsbMetadata::new);
+            METADATA_CACHE.put(url.toString(), unfiltered);
+        }
+        if (metadataFilter == null)
+            return new FetchedMetadata(new SsbMetadata(unfiltered), fromServer);
+        return new FetchedMetadata(new SsbMetadata(unfiltered, metadataFilter), fromServer);
+    }
+
+    /**
+     * <h1>FetchedMetadata</h1>
+     * <p>
+     * Metadata from {@link #fetchMetadata(URL, Map)}, and if it came from the server.
+     */
+    private static class FetchedMetadata {
+        private final SsbMetadata metadata;
+        private final boolean fromServer;
+
+        private FetchedMetadata(SsbMetadata metadata, boolean fromServer) {
+            this.metadata = metadata;
+            this.fromServer = fromServer;
+        }
+    }
+
+    /**
+     * <h1>setMetadata</h1>
+     * <p>
+     * This method makes the metadata the current table of this object and builds the chunks for it, with the cell limit
+     * learned for the table by its earlier queries.
+     *
+     * @param url     This is the metadata URL of the table.
+     * @param fetched This is the metadata of the table.
+     */
+    private synchronized void setMetadata(URL url, FetchedMetadata fetched) {
+        this.metadataUrl = url;
+        this.metadata = fetched.metadata;
+        this.metadataFromServer = fetched.fromServer;
+        applySelections();
+        this.metadataBuilder = new MetadataBuilder(metadata, klass, QueryCellLimit.forTable(url.toString()).limit());
         buildMetadata();
     }
 
+    /**
+     * <h1>applySelections</h1>
+     * <p>
+     * This method changes the metadata variables that have a selection set to the values the server will answer with.
+     */
+    private void applySelections() {
+        List<SsbMetadataVariables> variables = metadata.getVariables();
+        for (int i = 0; i < variables.size(); i++) {
+            QuerySelection selection = selections.get(variables.get(i).getCode());
+            if (selection != null)
+                variables.set(i, selection.apply(variables.get(i)));
+        }
+    }
+
     private void buildMetadata() {
         if (numberOfYears > 0) {
             filterYears();
@@ -169,210 +386,652 @@ public class SsbApiCall {
 
     }
 
+    /**
+     * <h1>tableUrl</h1>
+     *
+     * @param tableNumber This is the table number.
+     * @return Returns the metadata URL of the table, which is also where the table queries are sent.
+     * @throws MalformedURLException Throws MalformedURLException if the table number gives an invalid URL.
+     */
+    private URL tableUrl(String tableNumber) throws MalformedURLException {
+        return new URL("https://data.ssb.no/api/v0/no/table/" + tableNumber);
+    }
+
     /**
      * <h1>klassApiCall</h1>
      * <p>
-     * This method creates a SsbKlass object and adds the query result to a List. It then calls on convertStringToJson with the created List.
+     * This method fetches the classifications concurrently with a {@link TableQueryExecutor}, then merges them into one
+     * SsbKlass object. The merge is done in the order the classifications were given, no matter which order the
+     * fetches complete in, so the result is always the same. Merging copies the codes, so the cached objects are
+     * never changed.
      *
      * @throws IOException Throws IOException if apiCall encounters an error when querying.
-     * @see #apiCall(String, URL, String, int)
+     * @see #fetchKlass(URL, RetryPolicy.Job)
+     * @see SsbKlass#merge(SsbKlass)
      */
 
     private void klassApiCall() throws IOException {
-        List<String> klassResult = new ArrayList<>();
-        for (URL url : klassListUrl) {
-            klassResult.add(apiCall("klass", url, "", 0));
+        RetryPolicy.Job job = retryPolicy.startJob();
+        List<SsbKlass> classifications = new TableQueryExecutor(maxConcurrentQueries).execute(klassListUrl,
+                url -> fetchKlass(url, job));
+        SsbKlass fetched = new SsbKlass();
+        for (SsbKlass classification : classifications) {
+            fetched.merge(classification);
+        }
+        synchronized (this) {
+            klass = fetched;
         }
-        klass = new SsbKlass();
-        klass.convertStringToJson(klassResult);
+    }
+
+    /**
+     * <h1>fetchKlass</h1>
+     * <p>
+     * This method creates a SsbKlass object for one classification. It is taken from the {@link #getKlassCache()} if
+     * it's there, if not it queries the classification API and adds the result to the cache.
+     *
+     * @param url This is the classification URL.
+     * @param job This is the retry job the call belongs to.
+     * @return Returns the classification codes, which must not be changed.
+     * @throws IOException Throws IOException if apiCall encounters an error when querying.
+     */
+    private SsbKlass fetchKlass(URL url, RetryPolicy.Job job) throws IOException {
+        Optional<SsbKlass> cached = KLASS_CACHE.get(url.toString());
+        if (cached.isPresent())
+            return cached.get();
+        SsbKlass classification = readApiCall(url, job, body -> {
+            SsbKlass codes = new SsbKlass();
+            codes.readCodes(body);
+            return codes;
+        });
+        KLASS_CACHE.put(url.toString(), classification);
+        return classification;
+    }
+
+    /**
+     * <h1>klassApiCallAsync</h1>
+     * <p>
+     * Asynchronous version of klassApiCall, which fetches the classification codes given to the constructor again.
+     * The new codes are used by metadata calls made after the future completes. Only the classifications are fetched,
+     * the metadata of an object created with {@link #builder()} is still loaded the first time it is needed.
+     *
+     * @return Returns a future that completes with the classification codes, or with null if no classification codes
+     * were given.
+     */
+
+    public CompletableFuture<SsbKlass> klassApiCallAsync() {
+        return async(() -> {
+            if (klassListUrl == null)
+                return null;
+            klassApiCall();
+            synchronized (this) {
+                return klass;
+            }
+        });
     }
 
 
     /**
      * <h1>tableApiCall</h1>
      * <p>
-     * This method first checks if year is bigger than zero, so it can filter the 'Tid' metadata.
-     * Then it creates a MetadataBuilder object, then a Map is populated with List of SsbMetadataVariables.
-     * It then runs queryBuilder to build the query in a structure the API will accept and returns the list of results.
+     * This method builds one query for each of the chunks from MetadataBuilder, then runs the queries concurrently
+     * with a {@link TableQueryExecutor}. The results are returned in the same order as the chunks. A chunk the API
+     * refuses as too big is split in half and queried again, and gives one result per part, see {@link QueryCellLimit}.
+     * <p>
+     * Every result is kept in memory until the last query completes, use {@link #tableApiCall(TableChunkConsumer)}
+     * for large tables.
      *
      * @return Returns a List of the query results.
      * @throws IOException Throws IOException if apiCall encounters an error when querying.
      * @see MetadataBuilder
-     * @see #filterYears()
+     * @see TableQueryExecutor
+     * @see TableQuery
      */
 
     public List<String> tableApiCall() throws IOException {
-        Map<Integer, List<SsbMetadataVariables>> filteredMetadata = metadataBuilder.getBuiltMetadata();
-        List<String> queryList = new ArrayList<>();
+        TableSnapshot table = currentTable();
+        return tableApiCall(table);
+    }
 
-        for (int key : filteredMetadata.keySet()) {
-            queryBuilder(filteredMetadata, queryList, key);
-        }
-        return queryList;
+    /**
+     * <h1>tableApiCall</h1>
+     * <p>
+     * This method runs the same queries as {@link #tableApiCall()}, but hands each result to the consumer as a stream
+     * as soon as it arrives instead of collecting them as Strings. This way only the results currently being read
+     * are held in memory, no matter how big the table is.
+     *
+     * @param consumer This is the sink each query result is handed to. See {@link TableChunkConsumer} for threading.
+     * @throws IOException Throws IOException if apiCall encounters an error when querying, or the consumer fails.
+     * @see TableChunkConsumer
+     */
+
+    public void tableApiCall(TableChunkConsumer consumer) throws IOException {
+        TableSnapshot table = currentTable();
+        tableApiCall(table, consumer);
     }
 
     /**
-     * <h1>apiCall</h1>
+     * <h1>tableApiCallDecoded</h1>
      * <p>
-     * This method handles all the API calls to the two SSB API's. Depending on what methodCall it does different things.
+     * This method runs the same queries as {@link #tableApiCall()}, but decodes each result with a streaming decoder,
+     * like {@link JsonStat2Decoder} for json-stat2, while it is read from the network. The response text is never held
+     * in memory, only the values of each chunk as a {@link SsbTableCube}.
      *
-     * @param methodCall This String says which API it queries and how.
-     * @param url        This is the URL it will query.
-     * @param query      This is the query String for when used to query a table.
-     * @return Returns the result of the API calls.
+     * @return Returns the decoded query results, in chunk order.
+     * @throws IOException Throws IOException if apiCall encounters an error when querying, or a result can't be decoded.
+     */
+
+    public List<SsbTableCube> tableApiCallDecoded() throws IOException {
+        return tableApiCallDecoded(responseFormat);
+    }
+
+    /**
+     * <h1>tableApiCallDecoded</h1>
+     * <p>
+     * This method is {@link #tableApiCallDecoded()} with the results in another format, decoded by the format's
+     * streaming {@link no.ks.fiks.ssbAPI.tableApi.TableDecoder}.
+     *
+     * @param format This is the format of the query results.
+     * @return Returns the decoded query results, in chunk order.
+     * @throws IOException Throws IOException if apiCall encounters an error when querying, or a result can't be decoded.
+     */
+
+    public List<SsbTableCube> tableApiCallDecoded(ResponseFormat format) throws IOException {
+        TableSnapshot table = currentTable().withFormat(format);
+        return queryChunks(table, (chunk, body) -> {
+            SsbTableCube cube = new SsbTableCube(chunk.getVariables());
+            table.format.decoder(chunk.getVariables()).decode(body, cube);
+            return cube;
+        });
+    }
+
+    /**
+     * <h1>tableApiCallSparse</h1>
+     * <p>
+     * This method runs the same queries as {@link #tableApiCallDecoded()}, but only keeps the cells with a value and
+     * the status of each cell, as a {@link SparseTableCube} per chunk. Use it for tables where many cells are null,
+     * since memory then scales with the data and not with the cross product of the dimensions.
+     *
+     * @return Returns the decoded query results, in chunk order.
+     * @throws IOException Throws IOException if apiCall encounters an error when querying, or a result can't be decoded.
+     */
+
+    public List<SparseTableCube> tableApiCallSparse() throws IOException {
+        return tableApiCallSparse(responseFormat);
+    }
+
+    /**
+     * <h1>tableApiCallSparse</h1>
+     *
+     * @param format This is the format of the query results.
+     * @return Returns the decoded query results, in chunk order.
+     * @throws IOException Throws IOException if apiCall encounters an error when querying, or a result can't be decoded.
+     * @see #tableApiCallSparse()
+     */
+
+    public List<SparseTableCube> tableApiCallSparse(ResponseFormat format) throws IOException {
+        TableSnapshot table = currentTable().withFormat(format);
+        return queryChunks(table, (chunk, body) -> {
+            SparseTableCube cube = new SparseTableCube(chunk.getVariables());
+            table.format.decoder(chunk.getVariables()).decode(body, cube);
+            return cube;
+        });
+    }
+
+    /**
+     * <h1>tableApiCallMerged</h1>
+     * <p>
+     * This method runs the same queries as {@link #tableApiCall()} and decodes every chunk straight into one
+     * {@link SsbTableCube} for the whole table, using a {@link TableCubeMerger}. The cube is allocated once from the
+     * metadata before the first query is sent, so the chunks are never concatenated or sorted. Cells that weren't
+     * queried, like regions that weren't valid a year, are missing in the cube.
+     *
+     * @return Returns the whole table as one cube, with the dimensions of the metadata.
+     * @throws IOException Throws IOException if apiCall encounters an error when querying, or a result can't be decoded.
+     */
+
+    public SsbTableCube tableApiCallMerged() throws IOException {
+        return tableApiCallMerged(responseFormat);
+    }
+
+    /**
+     * <h1>tableApiCallMerged</h1>
+     * <p>
+     * This method is {@link #tableApiCallMerged()} with the results in another format.
+     *
+     * @param format This is the format of the query results.
+     * @return Returns the whole table as one cube, with the dimensions of the metadata.
+     * @throws IOException Throws IOException if apiCall encounters an error when querying, or a result can't be decoded.
+     */
+
+    public SsbTableCube tableApiCallMerged(ResponseFormat format) throws IOException {
+        TableSnapshot table = currentTable().withFormat(format);
+        TableCubeMerger merger = new TableCubeMerger(table.variables);
+        tableApiCall(table, (chunk, body) -> {
+            TableCubeMerger.ChunkSink sink = merger.sinkFor(chunk.getVariables());
+            table.format.decoder(chunk.getVariables()).decode(body, sink);
+            sink.finish();
+        });
+        return merger.getCube();
+    }
+
+    /**
+     * <h1>tableApiCallAsync</h1>
+     * <p>
+     * Asynchronous version of {@link #tableApiCall()}. The queries are built from the metadata this object has when
+     * the method is called, so changing table afterwards does not affect the running call. If the metadata hasn't
+     * been loaded yet, it is loaded on the background thread.
+     *
+     * @return Returns a future that completes with the List of query results.
+     */
+
+    public CompletableFuture<List<String>> tableApiCallAsync() {
+        Optional<TableSnapshot> loaded = loadedTable();
+        return async(() -> {
+            TableSnapshot table = loaded.isPresent() ? loaded.get() : currentTable();
+            return tableApiCall(table);
+        });
+    }
+
+    /**
+     * <h1>tableApiCallAsync</h1>
+     * <p>
+     * Asynchronous version of {@link #tableApiCall(TableChunkConsumer)}. The queries are built from the metadata
+     * this object has when the method is called.
+     *
+     * @param consumer This is the sink each query result is handed to. See {@link TableChunkConsumer} for threading.
+     * @return Returns a future that completes when every query result has been handed to the consumer.
+     */
+
+    public CompletableFuture<Void> tableApiCallAsync(TableChunkConsumer consumer) {
+        Optional<TableSnapshot> loaded = loadedTable();
+        return async(() -> {
+            TableSnapshot table = loaded.isPresent() ? loaded.get() : currentTable();
+            tableApiCall(table, consumer);
+            return null;
+        });
+    }
+
+    /**
+     * <h1>loadedTable</h1>
+     *
+     * @return Returns the URL and chunks of the current table, or an empty Optional if the metadata hasn't been
+     * loaded yet.
+     */
+    private synchronized Optional<TableSnapshot> loadedTable() {
+        if (metadataBuilder == null)
+            return Optional.empty();
+        return Optional.of(new TableSnapshot(metadataUrl, metadata.getVariables(), metadataBuilder.getChunks(),
+                metadataBuilder.getMaxCells(), selections, responseFormat, metadataFromServer));
+    }
+
+    /**
+     * <h1>tableApiCall</h1>
+     *
+     * @param table This is the table to query.
+     * @return Returns a List of the query results, in chunk order.
      * @throws IOException Throws IOException if apiCall encounters an error when querying.
-     * @see #handleResponseCodeErrors(HttpURLConnection, int)
-     */
-
-    private String apiCall(String methodCall, URL url, String query, int tries) throws IOException {
-
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestProperty("User-Agent",
-                "Mozilla/5.0 (Macintosh; U; Intel Mac OS X 10.4; en-US; rv:1.9.2.2) Gecko/20100316 Firefox/3.6.2");
-        connection.setRequestProperty("Content-Type", "application/json; utf-8");
-        connection.setRequestProperty("Accept", "application/json");
-        if (methodCall.equals("klass") || methodCall.equals("metadata")) {
-            connection.setRequestMethod("GET");
-            connection.connect();
-        } else if (methodCall.equals("table")) {
-            connection.setRequestMethod("POST");
-            connection.setDoOutput(true);
-            try (OutputStream os = connection.getOutputStream()) {
-                byte[] input = query.getBytes(StandardCharsets.UTF_8);
-                os.write(input, 0, input.length);
-            }
-            if (!handleResponseCodeErrors(connection, tries)) {
-                tries++;
-                return apiCall(methodCall, url, query, tries);
-            }
-            try (BufferedReader br = new BufferedReader(
-                    new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
-                StringBuilder response = new StringBuilder();
-                String responseLine;
-                while ((responseLine = br.readLine()) != null) {
-                    response.append(responseLine.trim());
-                }
-                return response.toString();
+     */
+    private List<String> tableApiCall(TableSnapshot table) throws IOException {
+        return queryChunks(table, (chunk, body) -> readTable(body, table.format));
+    }
+
+    /**
+     * <h1>tableApiCall</h1>
+     *
+     * @param table    This is the table to query.
+     * @param consumer This is the sink each query result is handed to.
+     * @throws IOException Throws IOException if apiCall encounters an error when querying, or the consumer fails.
+     */
+    private void tableApiCall(TableSnapshot table, TableChunkConsumer consumer) throws IOException {
+        queryChunks(table, (chunk, body) -> {
+            consumer.accept(chunk, body);
+            return null;
+        });
+    }
+
+    /**
+     * <h1>queryChunks</h1>
+     * <p>
+     * This method runs the query of every chunk of the table concurrently with a {@link TableQueryExecutor}, and reads
+     * each response with the reader.
+     *
+     * @param table  This is the table to query.
+     * @param reader This is the reader for the response body of a chunk.
+     * @param <T>    This is the type of the read response.
+     * @return Returns the read responses, in chunk order. A chunk that was split gives one response per part.
+     * @throws IOException Throws IOException if apiCall encounters an error when querying, or the reader fails.
+     * @see #queryChunk(TableSnapshot, TableChunk, RetryPolicy.Job, ChunkReader)
+     */
+    private <T> List<T> queryChunks(TableSnapshot table, ChunkReader<T> reader) throws IOException {
+        RetryPolicy.Job job = retryPolicy.startJob();
+        List<List<T>> parts = new TableQueryExecutor(maxConcurrentQueries).execute(table.chunks,
+                chunk -> queryChunk(table, chunk, job, reader));
+        List<T> results = new ArrayList<>(parts.size());
+        for (List<T> part : parts) {
+            results.addAll(part);
+        }
+        return results;
+    }
+
+    /**
+     * <h1>queryChunk</h1>
+     * <p>
+     * This method queries one chunk. If the API refuses it with 403 because it's too big, the chunk is split in half
+     * along its biggest variable, and the halves are queried one after the other the same way, so the rest of the table
+     * isn't thrown away. Every result is recorded in the {@link QueryCellLimit} of the table, so the next time the
+     * table is planned the chunks are closer to the size the API really allows, and chunks at least as big as one
+     * that was refused are split before they are sent.
+     *
+     * @param table  This is the table to query.
+     * @param chunk  This is the chunk to query.
+     * @param job    This is the retry job the call belongs to.
+     * @param reader This is the reader for the response body.
+     * @param <T>    This is the type of the read response.
+     * @return Returns the read response, or the read responses of the parts in order if the chunk was split.
+     * @throws IOException Throws IOException if apiCall encounters an error when querying, or the reader fails.
+     * @throws QueryTooBigException Throws QueryTooBigException if a chunk with one value of every variable is refused.
+     */
+    private <T> List<T> queryChunk(TableSnapshot table, TableChunk chunk, RetryPolicy.Job job, ChunkReader<T> reader) throws IOException {
+        long cells = 1;
+        int biggest = -1;
+        for (int i = 0; i < chunk.getVariables().size(); i++) {
+            int size = chunk.getVariables().get(i).size();
+            cells *= Math.max(1, size);
+            if (size > 1 && (biggest < 0 || size > chunk.getVariables().get(biggest).size()))
+                biggest = i;
+        }
+        if (biggest < 0 || !table.limit.isTooBig(cells)) {
+            try (SsbHttpResponse response = send(table.url, new TableQuery(chunk.getVariables(), table.selections, table.format, table.serverSelections), Map.of(), job)) {
+                T result = reader.read(chunk, response.getBody());
+                table.limit.succeeded(cells, table.plannedLimit);
+                return Collections.singletonList(result);
+            } catch (QueryTooBigException qtbe) {
+                table.limit.failed(cells);
+                if (biggest < 0)
+                    throw qtbe;
             }
+        }
+        SsbMetadataVariables split = chunk.getVariables().get(biggest);
+        int half = split.size() / 2;
+        List<T> results = new ArrayList<>();
+        for (SsbMetadataVariables part : List.of(split.slice(0, half), split.slice(half, split.size()))) {
+            List<SsbMetadataVariables> variables = new ArrayList<>(chunk.getVariables());
+            variables.set(biggest, part);
+            results.addAll(queryChunk(table, new TableChunk(chunk.getKey(), variables), job, reader));
+        }
+        return results;
+    }
 
+    @FunctionalInterface
+    private interface ChunkReader<T> {
+        T read(TableChunk chunk, InputStream body) throws IOException;
+    }
+
+    /**
+     * <h1>readTable</h1>
+     *
+     * @param body   This is the response body of a table query.
+     * @param format This is the format of the response.
+     * @return Returns the response as a String, with each line trimmed and joined if the format is JSON.
+     * @throws IOException Throws IOException if the body can't be read.
+     */
+    private static String readTable(InputStream body, ResponseFormat format) throws IOException {
+        if (!format.isJson())
+            return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+        BufferedReader br = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        StringBuilder result = new StringBuilder();
+        String responseLine;
+        while ((responseLine = br.readLine()) != null) {
+            result.append(responseLine.trim());
         }
-        return IOUtils.toString(url.openStream());
+        return result.toString();
     }
 
     /**
-     * <h1>handleResponseCodeErrors</h1>
+     * <h1>async</h1>
      * <p>
-     * This method handles the different http response codes we might get. If the error is caused from something on our side
-     * it will throw an IOException. If the error is Server-side it will retry after X-Seconds, depending on which error we get.
+     * Runs a call on the shared background executor. If the call throws, the future completes exceptionally with
+     * that exception.
      *
-     * @param connection This is the connection to the API.
-     * @return Returns false if it failed because of an error from SSB. Returns true if no errors.
-     * @throws IOException Throws IOException if HttpUrlConnection encounters an error when querying.
-     */
-
-    private boolean handleResponseCodeErrors(HttpURLConnection connection, int tries) throws IOException {
-        if (tries > 5)
-            throw new ConnectException("Tried five times, SSB might be down, error: " + connection.getResponseCode());
-        if (connection.getResponseCode() == 403)
-            throw new IOException("Query is too big, please submit a bug report on git project. " + connection.getResponseCode());
-        else if (connection.getResponseCode() == 404)
-            throw new IOException("Either wrong url (check that table exists) or syntax error on the query. If table exists, submit bug report. " + connection.getResponseCode());
-        else if (connection.getResponseCode() == 429) {
-            System.err.println("Too many queries... retrying..." + connection.getResponseCode());
-            retryQuery(5000);
-            return false;
-        } else if (connection.getResponseCode() == 503) {
-            System.err.println("Timeout from server, sleeping for 60 seconds and retrying" + connection.getResponseCode());
-            retryQuery(60000);
-            return false;
-        } else if (connection.getResponseCode() == 400) {
-            System.err.println("Bad request, retrying...");
-            retryQuery(5000);
-            return false;
+     * @param call This is the call to run.
+     * @param <T>  This is the type of the result.
+     * @return Returns a future for the result of the call.
+     */
+    private static <T> CompletableFuture<T> async(AsyncCall<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        ASYNC_EXECUTOR.execute(() -> {
+            try {
+                future.complete(call.call());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    @FunctionalInterface
+    private interface AsyncCall<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * <h1>readApiCall</h1>
+     * <p>
+     * This method sends a GET request to the metadata or classification API and parses the response straight from
+     * the network stream, so it never has to be a String. With a {@link DiskResponseCache} the body is kept as a String
+     * for the cache, and parsed from that.
+     *
+     * @param url    This is the URL it will query.
+     * @param job    This is the retry job the call belongs to.
+     * @param reader This is the parser for the response body.
+     * @param <T>    This is the type of the parsed response.
+     * @return Returns the parsed response.
+     * @throws IOException Throws IOException if the call fails or the response can't be parsed.
+     */
+    private <T> T readApiCall(URL url, RetryPolicy.Job job, ResponseReader<T> reader) throws IOException {
+        if (diskCache != null)
+            return reader.read(new ByteArrayInputStream(cachedGet(url, job).getBytes(StandardCharsets.UTF_8)));
+        try (SsbHttpResponse response = send(url, null, Map.of(), job)) {
+            return reader.read(response.getBody());
         }
-        return true;
+    }
+
+    @FunctionalInterface
+    private interface ResponseReader<T> {
+        T read(InputStream body) throws IOException;
     }
 
     /**
-     * <h1>retryQuery</h1>
+     * <h1>cachedGet</h1>
      * <p>
-     * Simple method that waits based on waitTimer.
+     * This method answers a GET request from the {@link DiskResponseCache}. In offline mode the cached response is used
+     * as it is. If not, the cached response is revalidated with a conditional GET and used if the server answers 304,
+     * while a new response replaces it in the cache.
      *
-     * @param waitTimer This int determines how long the thread should wait.
+     * @param url This is the URL it will query.
+     * @param job This is the retry job the call belongs to.
+     * @return Returns the response body.
+     * @throws IOException Throws IOException if the call fails, or in offline mode if the response isn't cached.
      */
-    private void retryQuery(int waitTimer) {
-        try {
-            Thread.sleep(waitTimer);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+
+    private String cachedGet(URL url, RetryPolicy.Job job) throws IOException {
+        Optional<DiskResponseCache.CachedResponse> cached = diskCache.get(url.toString());
+        if (diskCache.isOffline()) {
+            if (cached.isEmpty())
+                throw new IOException("Offline mode and no cached response for " + url);
+            return cached.get().readBody();
+        }
+        Map<String, String> headers = cached.map(DiskResponseCache.CachedResponse::getConditionalHeaders).orElse(Map.of());
+        try (SsbHttpResponse response = send(url, null, headers, job)) {
+            if (response.getStatusCode() == 304 && cached.isPresent())
+                return cached.get().readBody();
+            String body = response.bodyAsString();
+            diskCache.put(url.toString(), body, response.getHeaders().firstValue("ETag"),
+                    response.getHeaders().firstValue("Last-Modified"));
+            return body;
         }
     }
 
     /**
-     * <h1>queryBuilder</h1>
+     * <h1>send</h1>
      * <p>
-     * This method builds the query based on the metadata provided from Metadata builder.
+     * This method sends a GET request, or a POST request if a query is given, and retries it according to the
+     * {@link RetryPolicy} until the response code is OK. Every try takes a permit from the {@link SsbRateLimiter}
+     * before it is sent, and is sent through the pooled {@link SsbHttpTransport}.
      *
-     * @param filteredMetadata This is a Map of Lists that has the metadata which it builds the query from.
-     * @param queryList        This is the List of query results.
-     * @param key              This is the Map key.
-     * @throws IOException Throws IOException if apiCall encounters an error when querying.
+     * @param url     This is the URL it will query.
+     * @param query   This is the table query, or null for a GET request.
+     * @param headers This is extra headers for a GET request.
+     * @param job     This is the retry job the call belongs to.
+     * @return Returns the open response, which must be closed by the caller.
+     * @throws IOException Throws IOException if the call fails and can't be fixed by retrying.
+     * @see #handleResponseCodeErrors(SsbHttpResponse, URL)
      */
 
-    private void queryBuilder(Map<Integer, List<SsbMetadataVariables>> filteredMetadata, List<String> queryList, int key) throws IOException {
-        StringBuilder queryTwo = new StringBuilder();
-        for (SsbMetadataVariables metadataVariables : filteredMetadata.get(key)) {
-            queryTwo.append(buildString(metadataVariables));
+    private SsbHttpResponse send(URL url, TableQuery query, Map<String, String> headers, RetryPolicy.Job job) throws IOException {
+        URI uri = toUri(url);
+        for (int retry = 0; ; retry++) {
+            acquirePermit();
+            SsbHttpResponse response;
+            try {
+                response = query == null ? transport.get(uri, headers) : transport.post(uri, query);
+            } catch (InterruptedIOException iioe) {
+                throw iioe;
+            } catch (IOException ioe) {
+                job.awaitRetry(retry, Optional.empty(), "Connection error: " + ioe);
+                continue;
+            }
+            if (handleResponseCodeErrors(response, url))
+                return response;
+            response.close();
+            job.awaitRetry(retry, RetryPolicy.parseRetryAfter(response.getHeaders().firstValue("Retry-After")),
+                    describeResponseCode(response.getStatusCode()));
         }
-        queryTwo = new StringBuilder(queryTwo.substring(0, queryTwo.length() - 1));
-        String queryOne = "{\"query\": [";
-        String queryThree = "],\"response\": {\"format\": \"json-stat2\"}}";
-        String query = queryOne + queryTwo + queryThree;
-        queryList.add(apiCall("table", metadataUrl, query, 0));
     }
 
     /**
-     * <h1>buildString</h1>
+     * <h1>acquirePermit</h1>
      * <p>
-     * This is a helper method of queryBuilder that builds the code section of the query correctly as a String before returning it to queryBuilder.
-     * It builds the whole code section for all the variables in the metadata.
+     * Takes a permit from the {@link SsbRateLimiter}, waiting if the budget is used up.
      *
-     * @param ssbMetadataVariables This is object of SsbMetadataVariables.
-     * @return Returns the finished 'code' section of the query.
+     * @throws InterruptedIOException Throws InterruptedIOException if the thread is interrupted while waiting.
      */
+    private void acquirePermit() throws InterruptedIOException {
+        try {
+            rateLimiter.acquire();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the rate limiter");
+        }
+    }
 
-    private String buildString(SsbMetadataVariables ssbMetadataVariables) {
-        StringBuilder values = new StringBuilder();
-        if (ssbMetadataVariables.getValues().isEmpty())
-            return "";
-        for (String s : ssbMetadataVariables.getValues()) {
-            values.append("\"").append(s).append("\", ");
+    /**
+     * <h1>toUri</h1>
+     *
+     * @param url This is the URL to convert.
+     * @return Returns the URL as a URI.
+     * @throws IOException Throws IOException if the URL is not a valid URI.
+     */
+    private URI toUri(URL url) throws IOException {
+        try {
+            return url.toURI();
+        } catch (URISyntaxException use) {
+            throw new IOException("Invalid URL: " + url, use);
         }
-        values = new StringBuilder(values.substring(0, values.length() - 2));
-        return "{ \"code\": \"" + ssbMetadataVariables.getCode() + "\", \"selection\": { \"filter\": \"item\", \"values\": [" + values + "]}},";
+    }
+
+    /**
+     * <h1>handleResponseCodeErrors</h1>
+     * <p>
+     * This method handles the different http response codes we might get. If the error is caused from something on our side
+     * it will close the response and throw an IOException, a {@link QueryTooBigException} for 403 so the table calls can
+     * split the query. If the error is Server-side and the {@link RetryPolicy} says it can be retried, it returns false.
+     *
+     * @param response This is the response from the API.
+     * @param url      This is the URL that was queried.
+     * @return Returns false if it failed because of an error from SSB. Returns true if no errors.
+     * @throws IOException Throws IOException if the error can't be fixed by retrying.
+     */
+
+    private boolean handleResponseCodeErrors(SsbHttpResponse response, URL url) throws IOException {
+        int responseCode = response.getStatusCode();
+        if (responseCode < 400)
+            return true;
+        if (retryPolicy.isRetryable(responseCode))
+            return false;
+        response.close();
+        if (responseCode == 403)
+            throw new QueryTooBigException("Query is too big " + responseCode + " for URL: " + url);
+        else if (responseCode == 404)
+            throw new IOException("Either wrong url (check that table exists) or syntax error on the query. If table exists, submit bug report. " + responseCode);
+        throw new IOException("Server returned HTTP response code: " + responseCode + " for URL: " + url);
+    }
+
+    /**
+     * <h1>describeResponseCode</h1>
+     *
+     * @param responseCode This is the http response code from the API.
+     * @return Returns a description of a response code that will be retried.
+     */
+    private String describeResponseCode(int responseCode) {
+        if (responseCode == 429)
+            return "Too many queries " + responseCode;
+        else if (responseCode == 503)
+            return "Timeout from server " + responseCode;
+        else if (responseCode == 400)
+            return "Bad request " + responseCode;
+        return "Server error " + responseCode;
     }
 
     /**
      * <h1>filterYears</h1>
      * <p>
-     * This method removes all years/quarters/months if numberOfYears is bigger than 0.
+     * This method keeps the latest numberOfYears years of 'Tid' if numberOfYears is bigger than 0. The number of
+     * periods per year is counted from the values, so quarters, months and weeks need no special handling, and the
+     * periods kept are sent as a 'top' selection.
      */
     private void filterYears() {
         for (SsbMetadataVariables metadataVariables : metadata.getVariables()) {
             if (metadataVariables.getCode().equals("Tid")) {
-                if (metadataVariables.getValues().size() < numberOfYears)
-                    numberOfYears = metadataVariables.getValues().size();
-
-                if (metadataVariables.getValues().get(0).length() > 4)
-                    if (metadataVariables.getText().equalsIgnoreCase("kvartal"))
-                        numberOfYears = numberOfYears * 4;
-                    else if (metadataVariables.getText().equalsIgnoreCase("måned"))
-                        numberOfYears = numberOfYears * 12;
-                metadataVariables.getValues().subList(0, metadataVariables.getValues().size() - numberOfYears).clear();
+                int periods = (int) Math.min((long) numberOfYears * periodsPerYear(metadataVariables), metadataVariables.size());
+                BitSet latestPeriods = new BitSet();
+                latestPeriods.set(metadataVariables.size() - periods, metadataVariables.size());
+                metadataVariables.retain(latestPeriods);
             }
         }
     }
 
+    /**
+     * <h1>periodsPerYear</h1>
+     *
+     * @param tid This is the 'Tid' variable.
+     * @return Returns the highest number of periods in one year, found from the first four characters of each value.
+     */
+    private static int periodsPerYear(SsbMetadataVariables tid) {
+        Map<String, Integer> periods = new HashMap<>();
+        int max = 1;
+        for (String value : tid.getValues()) {
+            String year = value.length() > 4 ? value.substring(0, 4) : value;
+            max = Math.max(max, periods.merge(year, 1, Integer::sum));
+        }
+        return max;
+    }
+
+    /**
+     * <h1>loadLazily</h1>
+     * <p>
+     * Loads the metadata for the getters, for objects created with {@link #builder()}.
+     *
+     * @throws UncheckedIOException Throws UncheckedIOException if apiCall encounters an error when querying.
+     */
+    private void loadLazily() {
+        try {
+            ensureMetadataLoaded();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
     /**
      * <h1>getMetadata</h1>
      *
@@ -380,7 +1039,10 @@ public class SsbApiCall {
      */
 
     public SsbMetadata getMetadata() {
-        return metadata;
+        loadLazily();
+        synchronized (this) {
+            return metadata;
+        }
     }
 
     /**
@@ -389,10 +1051,387 @@ public class SsbApiCall {
      * @return Returns klass object.
      */
     public SsbKlass getKlass() {
-        return klass;
+        loadLazily();
+        synchronized (this) {
+            return klass;
+        }
     }
 
     public int getQuerySize() {
-        return metadataBuilder.getBuiltMetadata().size();
+        loadLazily();
+        synchronized (this) {
+            return metadataBuilder.getBuiltMetadata().size();
+        }
+    }
+
+    /**
+     * <h1>getMaxConcurrentQueries</h1>
+     *
+     * @return Returns the maximum number of table queries running at the same time.
+     */
+    public int getMaxConcurrentQueries() {
+        return maxConcurrentQueries;
+    }
+
+    /**
+     * <h1>setMaxConcurrentQueries</h1>
+     * <p>
+     * Sets how many table queries {@link #tableApiCall()} can run at the same time. The API limit of 30 queries per
+     * 60 seconds is kept by the {@link SsbRateLimiter} no matter what this is set to.
+     *
+     * @param maxConcurrentQueries This is the maximum number of queries running at the same time, must be at least 1.
+     */
+    public void setMaxConcurrentQueries(int maxConcurrentQueries) {
+        if (maxConcurrentQueries < 1)
+            throw new IllegalArgumentException("maxConcurrentQueries must be at least 1, was " + maxConcurrentQueries);
+        this.maxConcurrentQueries = maxConcurrentQueries;
+    }
+
+    /**
+     * <h1>getRateLimiter</h1>
+     *
+     * @return Returns the rate limiter every call takes a permit from.
+     */
+    public SsbRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * <h1>setRateLimiter</h1>
+     * <p>
+     * Replaces the shared rate limiter, for example to give one SsbApiCall object its own budget.
+     *
+     * @param rateLimiter This is the rate limiter every call will take a permit from.
+     */
+    public void setRateLimiter(SsbRateLimiter rateLimiter) {
+        this.rateLimiter = Objects.requireNonNull(rateLimiter);
+    }
+
+    /**
+     * <h1>getTransport</h1>
+     *
+     * @return Returns the transport every call is sent through.
+     */
+    public SsbHttpTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * <h1>setTransport</h1>
+     * <p>
+     * Replaces the shared transport, for example to use other connect and read timeouts.
+     *
+     * @param transport This is the transport every call will be sent through.
+     */
+    public void setTransport(SsbHttpTransport transport) {
+        this.transport = Objects.requireNonNull(transport);
+    }
+
+    /**
+     * <h1>getRetryPolicy</h1>
+     *
+     * @return Returns the policy for retrying calls that fail because of an error on the SSB side.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * <h1>setRetryPolicy</h1>
+     *
+     * @param retryPolicy This is the policy for retrying calls that fail because of an error on the SSB side.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = Objects.requireNonNull(retryPolicy);
+    }
+
+    /**
+     * <h1>getDiskCache</h1>
+     *
+     * @return Returns the disk cache for metadata and classification responses, or null if there is none.
+     */
+    public DiskResponseCache getDiskCache() {
+        return diskCache;
+    }
+
+    /**
+     * <h1>setDiskCache</h1>
+     * <p>
+     * Sets the disk cache used for metadata and classification responses. By default the shared cache from
+     * {@link DiskResponseCache#getDefault()} is used, if the system properties are set.
+     *
+     * @param diskCache This is the disk cache, or null to always query the API.
+     */
+    public void setDiskCache(DiskResponseCache diskCache) {
+        this.diskCache = diskCache;
+    }
+
+    /**
+     * <h1>setSelection</h1>
+     * <p>
+     * Sets the PxWeb selection for a variable, used for the tables queried after this. The selection is done by the
+     * server, for example {@link QuerySelection#agg(String, List)} to query municipalities summed up to counties.
+     *
+     * @param code      This is the code of the variable.
+     * @param selection This is the selection, or null to remove it.
+     */
+    public synchronized void setSelection(String code, QuerySelection selection) {
+        if (selection == null)
+            selections.remove(code);
+        else
+            selections.put(code, selection);
+    }
+
+    /**
+     * <h1>getSelections</h1>
+     *
+     * @return Returns the selections set with {@link #setSelection(String, QuerySelection)}.
+     */
+    public synchronized Map<String, QuerySelection> getSelections() {
+        return Map.copyOf(selections);
+    }
+
+    /**
+     * <h1>getResponseFormat</h1>
+     *
+     * @return Returns the format the table queries ask for.
+     */
+    public ResponseFormat getResponseFormat() {
+        return responseFormat;
+    }
+
+    /**
+     * <h1>setResponseFormat</h1>
+     * <p>
+     * Sets the format the table queries ask for, json-stat2 by default. The results of {@link #tableApiCall()} are
+     * then in this format, and {@link #tableApiCallDecoded()} and {@link #tableApiCallMerged()} decode it with the
+     * format's decoder.
+     *
+     * @param responseFormat This is the response format.
+     */
+    public void setResponseFormat(ResponseFormat responseFormat) {
+        this.responseFormat = Objects.requireNonNull(responseFormat);
+    }
+
+    /**
+     * <h1>getMetadataCache</h1>
+     * <p>
+     * The cache of parsed, unfiltered metadata shared by all SsbApiCall objects, keyed by metadata URL. Entries are
+     * kept for an hour by default.
+     *
+     * @return Returns the metadata cache.
+     */
+    public static TtlCache<String, SsbMetadata> getMetadataCache() {
+        return METADATA_CACHE;
+    }
+
+    /**
+     * <h1>getKlassCache</h1>
+     * <p>
+     * The cache of parsed classification codes shared by all SsbApiCall objects, keyed by classification URL. Entries
+     * are kept for six hours by default.
+     *
+     * @return Returns the classification cache.
+     */
+    public static TtlCache<String, SsbKlass> getKlassCache() {
+        return KLASS_CACHE;
+    }
+
+    /**
+     * <h1>TableSnapshot</h1>
+     * <p>
+     * The URL, variables, chunks, planned cell limit, selections and response format of a table at the time a table
+     * call was made. The {@code all} and {@code top} selections are only sent if the metadata came from the server,
+     * since the server resolves them against its own metadata, see
+     * {@link QuerySelection#forVariable(SsbMetadataVariables, QuerySelection, boolean)}.
+     */
+    private static class TableSnapshot {
+        private final URL url;
+        private final QueryCellLimit limit;
+        private final long plannedLimit;
+        private final List<SsbMetadataVariables> variables;
+        private final List<TableChunk> chunks;
+        private final Map<String, QuerySelection> selections;
+        private final ResponseFormat format;
+        private final boolean serverSelections;
+
+        private TableSnapshot(URL url, List<SsbMetadataVariables> variables, List<TableChunk> chunks, long plannedLimit,
+                              Map<String, QuerySelection> selections, ResponseFormat format, boolean serverSelections) {
+            this.url = url;
+            this.limit = QueryCellLimit.forTable(url.toString());
+            this.plannedLimit = plannedLimit;
+            this.variables = new ArrayList<>(variables);
+            this.chunks = chunks;
+            this.selections = Map.copyOf(selections);
+            this.format = Objects.requireNonNull(format);
+            this.serverSelections = serverSelections;
+        }
+
+        private TableSnapshot withFormat(ResponseFormat format) {
+            return new TableSnapshot(url, variables, chunks, plannedLimit, selections, format, serverSelections);
+        }
+    }
+
+    /**
+     * <h1>Builder</h1>
+     * <p>
+     * Builder for SsbApiCall. It only records the configuration, the classification codes and metadata are fetched
+     * the first time the object is used, for example by {@link #tableApiCall()} or {@link #getMetadata()}. The
+     * classification codes are then reused for every table queried with the object.
+     */
+    public static class Builder {
+        private String tableNumber;
+        private int numberOfYears;
+        private Map<String, List<String>> metadataFilter;
+        private String[] classifications = new String[0];
+        private int maxConcurrentQueries = TableQueryExecutor.DEFAULT_CONCURRENCY;
+        private SsbRateLimiter rateLimiter = SsbRateLimiter.getShared();
+        private SsbHttpTransport transport = SsbHttpTransport.getDefault();
+        private RetryPolicy retryPolicy = RetryPolicy.defaultPolicy();
+        private DiskResponseCache diskCache;
+        private boolean diskCacheSet;
+        private final Map<String, QuerySelection> selections = new LinkedHashMap<>();
+        private ResponseFormat responseFormat = ResponseFormat.JSON_STAT2;
+
+        private Builder() {
+        }
+
+        /**
+         * <h1>table</h1>
+         *
+         * @param tableNumber This is the table number you want to query.
+         * @return Returns the builder.
+         */
+        public Builder table(String tableNumber) {
+            this.tableNumber = tableNumber;
+            return this;
+        }
+
+        /**
+         * <h1>numberOfYears</h1>
+         *
+         * @param numberOfYears This is the number of years you wish to query, 0 or less for all years.
+         * @return Returns the builder.
+         */
+        public Builder numberOfYears(int numberOfYears) {
+            this.numberOfYears = numberOfYears;
+            return this;
+        }
+
+        /**
+         * <h1>metadataFilter</h1>
+         *
+         * @param metadataFilter This is a Map of filters for the metadata of the table.
+         * @return Returns the builder.
+         */
+        public Builder metadataFilter(Map<String, List<String>> metadataFilter) {
+            this.metadataFilter = metadataFilter;
+            return this;
+        }
+
+        /**
+         * <h1>classifications</h1>
+         *
+         * @param classifications This is the classification codes you wish to filter against.
+         * @return Returns the builder.
+         */
+        public Builder classifications(String... classifications) {
+            this.classifications = classifications.clone();
+            return this;
+        }
+
+        /**
+         * <h1>maxConcurrentQueries</h1>
+         *
+         * @param maxConcurrentQueries This is the maximum number of queries running at the same time.
+         * @return Returns the builder.
+         */
+        public Builder maxConcurrentQueries(int maxConcurrentQueries) {
+            if (maxConcurrentQueries < 1)
+                throw new IllegalArgumentException("maxConcurrentQueries must be at least 1, was " + maxConcurrentQueries);
+            this.maxConcurrentQueries = maxConcurrentQueries;
+            return this;
+        }
+
+        /**
+         * <h1>rateLimiter</h1>
+         *
+         * @param rateLimiter This is the rate limiter every call will take a permit from.
+         * @return Returns the builder.
+         */
+        public Builder rateLimiter(SsbRateLimiter rateLimiter) {
+            this.rateLimiter = Objects.requireNonNull(rateLimiter);
+            return this;
+        }
+
+        /**
+         * <h1>transport</h1>
+         *
+         * @param transport This is the transport every call will be sent through.
+         * @return Returns the builder.
+         */
+        public Builder transport(SsbHttpTransport transport) {
+            this.transport = Objects.requireNonNull(transport);
+            return this;
+        }
+
+        /**
+         * <h1>retryPolicy</h1>
+         *
+         * @param retryPolicy This is the policy for retrying calls that fail because of an error on the SSB side.
+         * @return Returns the builder.
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = Objects.requireNonNull(retryPolicy);
+            return this;
+        }
+
+        /**
+         * <h1>diskCache</h1>
+         * <p>
+         * Without this, the shared cache from {@link DiskResponseCache#getDefault()} is used.
+         *
+         * @param diskCache This is the disk cache for metadata and classification responses, or null for none.
+         * @return Returns the builder.
+         */
+        public Builder diskCache(DiskResponseCache diskCache) {
+            this.diskCache = diskCache;
+            this.diskCacheSet = true;
+            return this;
+        }
+
+        /**
+         * <h1>selection</h1>
+         *
+         * @param code      This is the code of the variable.
+         * @param selection This is the PxWeb selection for the variable.
+         * @return Returns the builder.
+         * @see SsbApiCall#setSelection(String, QuerySelection)
+         */
+        public Builder selection(String code, QuerySelection selection) {
+            this.selections.put(code, Objects.requireNonNull(selection));
+            return this;
+        }
+
+        /**
+         * <h1>responseFormat</h1>
+         *
+         * @param responseFormat This is the format the table queries ask for.
+         * @return Returns the builder.
+         * @see SsbApiCall#setResponseFormat(ResponseFormat)
+         */
+        public Builder responseFormat(ResponseFormat responseFormat) {
+            this.responseFormat = Objects.requireNonNull(responseFormat);
+            return this;
+        }
+
+        /**
+         * <h1>build</h1>
+         *
+         * @return Returns the SsbApiCall object, without making any network calls.
+         */
+        public SsbApiCall build() {
+            return new SsbApiCall(this);
+        }
     }
 }
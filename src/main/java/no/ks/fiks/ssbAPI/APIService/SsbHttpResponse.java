@@ -0,0 +1,85 @@
+package no.ks.fiks.ssbAPI.APIService;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpHeaders;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <h1>SsbHttpResponse</h1>
+ * <p>
+ * Simple class for a response from {@link SsbHttpTransport}. The body is already decompressed, and must be closed
+ * so the connection can be reused.
+ */
+
+public class SsbHttpResponse implements Closeable {
+
+    private final int statusCode;
+    private final HttpHeaders headers;
+    private final InputStream body;
+
+    /**
+     * Initializes the variables.
+     *
+     * @param statusCode This is the HTTP status code.
+     * @param headers    This is the response headers.
+     * @param body       This is the decompressed response body.
+     */
+    public SsbHttpResponse(int statusCode, HttpHeaders headers, InputStream body) {
+        this.statusCode = statusCode;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    /**
+     * <h1>getStatusCode</h1>
+     *
+     * @return Returns the HTTP status code.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * <h1>getHeaders</h1>
+     *
+     * @return Returns the response headers.
+     */
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    /**
+     * <h1>getBody</h1>
+     *
+     * @return Returns the decompressed response body as a stream.
+     */
+    public InputStream getBody() {
+        return body;
+    }
+
+    /**
+     * <h1>bodyAsString</h1>
+     * <p>
+     * Reads the whole body as a UTF-8 String.
+     *
+     * @return Returns the response body.
+     * @throws IOException Throws IOException if the body could not be read.
+     */
+    public String bodyAsString() throws IOException {
+        return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * <h1>close</h1>
+     * <p>
+     * Closes the body, which releases the connection back to the pool.
+     *
+     * @throws IOException Throws IOException if the body could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        body.close();
+    }
+}
@@ -0,0 +1,193 @@
+package no.ks.fiks.ssbAPI.APIService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * <h1>SsbHttpTransport</h1>
+ * <p>
+ * SsbHttpTransport sends the HTTP requests for {@link SsbApiCall}. It wraps one pooled {@link HttpClient}, so the
+ * connections to data.ssb.no are kept alive and reused between calls instead of opening a new connection per call.
+ * HTTP/2 is used where the server supports it, and responses are requested gzip compressed and decompressed
+ * transparently, since json-stat2 responses compress very well.
+ * <p>
+ * The response timeout is how long to wait for the status and headers of a response. The body is read as a stream
+ * after that, and {@link HttpClient} has no timeout for reading it, so a body that stops arriving isn't timed out.
+ * <p>
+ * By default all SsbApiCall objects share the transport from {@link #getDefault()}.
+ */
+
+public class SsbHttpTransport {
+
+    public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    public static final Duration DEFAULT_RESPONSE_TIMEOUT = Duration.ofMinutes(2);
+
+    private static final String USER_AGENT = "Mozilla/5.0 (Macintosh; U; Intel Mac OS X 10.4; en-US; rv:1.9.2.2) Gecko/20100316 Firefox/3.6.2";
+    private static final SsbHttpTransport DEFAULT = new SsbHttpTransport(DEFAULT_CONNECT_TIMEOUT, DEFAULT_RESPONSE_TIMEOUT);
+
+    private final HttpClient client;
+    private final Duration connectTimeout;
+    private final Duration responseTimeout;
+
+    /**
+     * Constructor that creates a new client with its own connection pool.
+     *
+     * @param connectTimeout  This is how long to wait for a connection to be established.
+     * @param responseTimeout This is how long to wait for the status and headers of the response after the request is
+     *                        sent. It doesn't cover reading the body.
+     */
+    public SsbHttpTransport(Duration connectTimeout, Duration responseTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.responseTimeout = responseTimeout;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(connectTimeout)
+                .build();
+    }
+
+    /**
+     * <h1>getDefault</h1>
+     *
+     * @return Returns the transport shared by all SsbApiCall objects in the JVM.
+     */
+    public static SsbHttpTransport getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * <h1>get</h1>
+     * <p>
+     * This method sends a GET request, used for the metadata and classification APIs.
+     *
+     * @param uri This is the URI it will query.
+     * @return Returns the response, which must be closed by the caller.
+     * @throws IOException Throws IOException if the request could not be sent.
+     */
+    public SsbHttpResponse get(URI uri) throws IOException {
+        return get(uri, Map.of());
+    }
+
+    /**
+     * <h1>get</h1>
+     * <p>
+     * This method sends a GET request with extra headers, used for conditional requests.
+     *
+     * @param uri     This is the URI it will query.
+     * @param headers This is the extra headers to send.
+     * @return Returns the response, which must be closed by the caller.
+     * @throws IOException Throws IOException if the request could not be sent.
+     */
+    public SsbHttpResponse get(URI uri, Map<String, String> headers) throws IOException {
+        HttpRequest.Builder request = newRequest(uri).GET();
+        headers.forEach(request::header);
+        return send(request.build());
+    }
+
+    /**
+     * <h1>post</h1>
+     * <p>
+     * This method sends a POST request with a JSON body, used for the table queries.
+     *
+     * @param uri  This is the URI it will query.
+     * @param body This is the JSON query.
+     * @return Returns the response, which must be closed by the caller.
+     * @throws IOException Throws IOException if the request could not be sent.
+     */
+    public SsbHttpResponse post(URI uri, String body) throws IOException {
+        return send(newRequest(uri)
+                .header("Content-Type", "application/json; charset=utf-8")
+                .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
+                .build());
+    }
+
+    /**
+     * <h1>post</h1>
+     * <p>
+     * This method sends a POST request with a table query. The query is written by its streaming JSON generator now,
+     * when it is sent, and every retry writes it again, so no query is held before or after its request.
+     *
+     * @param uri   This is the URI it will query.
+     * @param query This is the table query.
+     * @return Returns the response, which must be closed by the caller.
+     * @throws IOException Throws IOException if the request could not be sent.
+     */
+    public SsbHttpResponse post(URI uri, TableQuery query) throws IOException {
+        return send(newRequest(uri)
+                .header("Content-Type", "application/json; charset=utf-8")
+                .setHeader("Accept", query.getFormat().isJson() ? "application/json" : "*/*")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(query.toBytes()))
+                .build());
+    }
+
+    /**
+     * <h1>newRequest</h1>
+     *
+     * @param uri This is the URI it will query.
+     * @return Returns a request builder with the headers every request has.
+     */
+    private HttpRequest.Builder newRequest(URI uri) {
+        return HttpRequest.newBuilder(uri)
+                .timeout(responseTimeout)
+                .header("User-Agent", USER_AGENT)
+                .header("Accept", "application/json")
+                .header("Accept-Encoding", "gzip");
+    }
+
+    /**
+     * <h1>send</h1>
+     * <p>
+     * This method sends the request and wraps the body in a {@link GZIPInputStream} if the server compressed it.
+     *
+     * @param request This is the request to send.
+     * @return Returns the response.
+     * @throws IOException Throws IOException if the request could not be sent.
+     */
+    private SsbHttpResponse send(HttpRequest request) throws IOException {
+        HttpResponse<InputStream> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + request.uri());
+        }
+        InputStream body = response.body();
+        boolean hasBody = response.statusCode() != 204 && response.statusCode() != 304;
+        if (hasBody && response.headers().firstValue("Content-Encoding").orElse("").equalsIgnoreCase("gzip")) {
+            try {
+                body = new GZIPInputStream(body);
+            } catch (IOException ioe) {
+                body.close();
+                throw ioe;
+            }
+        }
+        return new SsbHttpResponse(response.statusCode(), response.headers(), body);
+    }
+
+    /**
+     * <h1>getConnectTimeout</h1>
+     *
+     * @return Returns how long to wait for a connection to be established.
+     */
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * <h1>getResponseTimeout</h1>
+     *
+     * @return Returns how long to wait for the status and headers of the response after the request is sent.
+     */
+    public Duration getResponseTimeout() {
+        return responseTimeout;
+    }
+}
@@ -0,0 +1,163 @@
+package no.ks.fiks.ssbAPI.APIService;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * <h1>SsbRateLimiter</h1>
+ * <p>
+ * SsbRateLimiter keeps us under the SSB API limit of 30 queries per 60 seconds before the API has to tell us with a 429.
+ * Every call in {@link SsbApiCall} takes a permit from the limiter before it is sent, and by default all
+ * SsbApiCall objects share the same limiter from {@link #getShared()}, so they share one budget per JVM.
+ * <p>
+ * It works as a token bucket with {@link #getPermits()} tokens, where each token is put back in the bucket one
+ * {@link #getWindow()} after it was taken. Unlike a bucket that refills at a constant rate, this never lets more than
+ * {@link #getPermits()} queries through in any window, while still allowing the full budget to be used in a burst.
+ */
+
+public class SsbRateLimiter {
+
+    public static final int DEFAULT_PERMITS = 30;
+    public static final Duration DEFAULT_WINDOW = Duration.ofSeconds(60);
+
+    private static final SsbRateLimiter SHARED = new SsbRateLimiter(DEFAULT_PERMITS, DEFAULT_WINDOW);
+
+    private final int permits;
+    private final Duration window;
+    private final long windowNanos;
+    private final Deque<Long> takenPermits;
+    private long totalWaitMillis;
+    private long lastWaitMillis;
+    private long acquiredPermits;
+
+    /**
+     * Constructor for a limiter with its own budget, mostly useful for tests or for other API limits.
+     *
+     * @param permits This is the number of queries allowed in one window, must be at least 1.
+     * @param window  This is the length of the window.
+     */
+    public SsbRateLimiter(int permits, Duration window) {
+        if (permits < 1)
+            throw new IllegalArgumentException("permits must be at least 1, was " + permits);
+        if (window.isNegative() || window.isZero())
+            throw new IllegalArgumentException("window must be positive, was " + window);
+        this.permits = permits;
+        this.window = window;
+        this.windowNanos = window.toNanos();
+        this.takenPermits = new ArrayDeque<>();
+    }
+
+    /**
+     * <h1>getShared</h1>
+     *
+     * @return Returns the limiter shared by all SsbApiCall objects in the JVM.
+     */
+    public static SsbRateLimiter getShared() {
+        return SHARED;
+    }
+
+    /**
+     * <h1>acquire</h1>
+     * <p>
+     * This method takes a permit from the bucket, blocking until one is put back if the bucket is empty.
+     *
+     * @throws InterruptedException Throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public synchronized void acquire() throws InterruptedException {
+        long start = System.nanoTime();
+        while (true) {
+            long now = System.nanoTime();
+            refill(now);
+            if (takenPermits.size() < permits) {
+                takenPermits.addLast(now);
+                lastWaitMillis = (now - start) / 1_000_000;
+                totalWaitMillis += lastWaitMillis;
+                acquiredPermits++;
+                return;
+            }
+            long waitNanos = takenPermits.peekFirst() + windowNanos - now;
+            wait(Math.max(1, waitNanos / 1_000_000), (int) (waitNanos % 1_000_000));
+        }
+    }
+
+    /**
+     * <h1>refill</h1>
+     * <p>
+     * This method puts back every permit that was taken more than one window ago.
+     *
+     * @param now This is the current time from {@link System#nanoTime()}.
+     */
+    private void refill(long now) {
+        while (!takenPermits.isEmpty() && takenPermits.peekFirst() + windowNanos - now <= 0)
+            takenPermits.pollFirst();
+    }
+
+    /**
+     * <h1>getAvailablePermits</h1>
+     *
+     * @return Returns the number of queries that can be sent right now without waiting.
+     */
+    public synchronized int getAvailablePermits() {
+        refill(System.nanoTime());
+        return permits - takenPermits.size();
+    }
+
+    /**
+     * <h1>getMillisUntilNextPermit</h1>
+     *
+     * @return Returns how long the next query would have to wait, 0 if a permit is available.
+     */
+    public synchronized long getMillisUntilNextPermit() {
+        long now = System.nanoTime();
+        refill(now);
+        if (takenPermits.size() < permits)
+            return 0;
+        return Math.max(0, (takenPermits.peekFirst() + windowNanos - now) / 1_000_000);
+    }
+
+    /**
+     * <h1>getTotalWaitMillis</h1>
+     *
+     * @return Returns the total time all callers have waited for permits.
+     */
+    public synchronized long getTotalWaitMillis() {
+        return totalWaitMillis;
+    }
+
+    /**
+     * <h1>getLastWaitMillis</h1>
+     *
+     * @return Returns the time the last permit had to wait.
+     */
+    public synchronized long getLastWaitMillis() {
+        return lastWaitMillis;
+    }
+
+    /**
+     * <h1>getAcquiredPermits</h1>
+     *
+     * @return Returns the number of permits taken since the limiter was created.
+     */
+    public synchronized long getAcquiredPermits() {
+        return acquiredPermits;
+    }
+
+    /**
+     * <h1>getPermits</h1>
+     *
+     * @return Returns the number of queries allowed in one window.
+     */
+    public int getPermits() {
+        return permits;
+    }
+
+    /**
+     * <h1>getWindow</h1>
+     *
+     * @return Returns the length of the window.
+     */
+    public Duration getWindow() {
+        return window;
+    }
+}
@@ -0,0 +1,29 @@
+package no.ks.fiks.ssbAPI.APIService;
+
+import no.ks.fiks.ssbAPI.builder.TableChunk;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <h1>TableChunkConsumer</h1>
+ * <p>
+ * The sink {@link SsbApiCall#tableApiCall(TableChunkConsumer)} hands each query result to as soon as it arrives.
+ * The body is the raw, decompressed response stream, and is closed after {@link #accept(TableChunk, InputStream)}
+ * returns, so it must be read before returning.
+ * <p>
+ * When more than one query runs at the same time, the consumer is called from several threads at once and must be
+ * thread-safe. The chunks arrive in the order they complete, use {@link TableChunk#getKey()} to put them in order.
+ */
+@FunctionalInterface
+public interface TableChunkConsumer {
+
+    /**
+     * <h1>accept</h1>
+     *
+     * @param chunk This is the chunk the result belongs to.
+     * @param body  This is the response body of the query.
+     * @throws IOException Throws IOException if the body could not be read, which fails the table call.
+     */
+    void accept(TableChunk chunk, InputStream body) throws IOException;
+}
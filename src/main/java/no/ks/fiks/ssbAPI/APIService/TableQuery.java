@@ -0,0 +1,151 @@
+package no.ks.fiks.ssbAPI.APIService;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import no.ks.fiks.ssbAPI.metadataApi.SsbMetadataVariables;
+import no.ks.fiks.ssbAPI.tableApi.ResponseFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <h1>TableQuery</h1>
+ * <p>
+ * TableQuery is the query for one chunk of a table. It only holds the chunk's metadata variables and the selections,
+ * and the JSON is written by a streaming {@link JsonGenerator} when the query is sent, so no query text is built up
+ * front for every chunk. The generator escapes every code and value, so a value with a quote or backslash still gives
+ * valid JSON.
+ */
+
+public class TableQuery {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final List<SsbMetadataVariables> variables;
+    private final Map<String, QuerySelection> selections;
+    private final ResponseFormat format;
+    private final boolean serverSelections;
+
+    /**
+     * Initializes a json-stat2 query, without writing anything.
+     *
+     * @param variables  This is the metadata variables of the chunk.
+     * @param selections This is the selections set for the table, by variable code.
+     */
+    public TableQuery(List<SsbMetadataVariables> variables, Map<String, QuerySelection> selections) {
+        this(variables, selections, ResponseFormat.JSON_STAT2);
+    }
+
+    /**
+     * Initializes the query, without writing anything.
+     *
+     * @param variables  This is the metadata variables of the chunk.
+     * @param selections This is the selections set for the table, by variable code.
+     * @param format     This is the format of the response.
+     */
+    public TableQuery(List<SsbMetadataVariables> variables, Map<String, QuerySelection> selections, ResponseFormat format) {
+        this(variables, selections, format, true);
+    }
+
+    /**
+     * Initializes the query, without writing anything.
+     *
+     * @param variables        This is the metadata variables of the chunk.
+     * @param selections       This is the selections set for the table, by variable code.
+     * @param format           This is the format of the response.
+     * @param serverSelections This is true if the metadata is the server's current metadata, so {@code all} and
+     *                         {@code top} can be sent. If not, every value is listed with {@code item}.
+     */
+    public TableQuery(List<SsbMetadataVariables> variables, Map<String, QuerySelection> selections, ResponseFormat format,
+                      boolean serverSelections) {
+        this.variables = variables;
+        this.selections = selections;
+        this.format = format;
+        this.serverSelections = serverSelections;
+    }
+
+    /**
+     * <h1>writeTo</h1>
+     * <p>
+     * Writes the query as UTF-8 JSON. The stream is not closed.
+     *
+     * @param out This is the stream the query is written to.
+     * @throws IOException Throws IOException if the stream can't be written to.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("query");
+            for (SsbMetadataVariables variable : variables) {
+                QuerySelection selection = QuerySelection.forVariable(variable, selections.get(variable.getCode()), serverSelections);
+                if (selection == null)
+                    continue;
+                generator.writeStartObject();
+                generator.writeStringField("code", variable.getCode());
+                generator.writeObjectFieldStart("selection");
+                generator.writeStringField("filter", selection.getFilter());
+                generator.writeArrayFieldStart("values");
+                for (String value : selection.getValues()) {
+                    generator.writeString(value);
+                }
+                generator.writeEndArray();
+                generator.writeEndObject();
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeObjectFieldStart("response");
+            generator.writeStringField("format", format.getName());
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * <h1>toBytes</h1>
+     *
+     * @return Returns the query as UTF-8 JSON.
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try {
+            writeTo(out);
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Could not write query to memory", ioe);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * <h1>toString</h1>
+     *
+     * @return Returns the query as JSON, for logging.
+     */
+    @Override
+    public String toString() {
+        return new String(toBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * <h1>getVariables</h1>
+     *
+     * @return Returns the metadata variables of the chunk.
+     */
+    public List<SsbMetadataVariables> getVariables() {
+        return variables;
+    }
+
+    /**
+     * <h1>getFormat</h1>
+     *
+     * @return Returns the format of the response.
+     */
+    public ResponseFormat getFormat() {
+        return format;
+    }
+}
@@ -0,0 +1,105 @@
+package no.ks.fiks.ssbAPI.APIService;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <h1>TableQueryExecutor</h1>
+ * <p>
+ * TableQueryExecutor runs the table queries built from the chunks of {@link no.ks.fiks.ssbAPI.builder.MetadataBuilder}
+ * concurrently instead of one at a time. It keeps up to {@link #getMaxConcurrentQueries()} queries in flight, while
+ * the {@link SsbRateLimiter} used by the query call makes sure the API limit of 30 queries per 60 seconds is kept.
+ * <p>
+ * The results are returned in the same order as the queries, no matter which order they complete in. It is also used
+ * to fetch the classifications in {@link SsbApiCall} concurrently.
+ */
+
+public class TableQueryExecutor {
+
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    private final int maxConcurrentQueries;
+
+    /**
+     * <h1>QueryCall</h1>
+     * <p>
+     * The call that sends a single query to the API and returns the result.
+     *
+     * @param <T> This is the type of the query.
+     * @param <R> This is the type of the result.
+     */
+    @FunctionalInterface
+    public interface QueryCall<T, R> {
+        R call(T query) throws IOException;
+    }
+
+    /**
+     * Simple constructor that sets how many queries can be in flight at the same time.
+     *
+     * @param maxConcurrentQueries This is the maximum number of queries running at the same time, must be at least 1.
+     */
+    public TableQueryExecutor(int maxConcurrentQueries) {
+        if (maxConcurrentQueries < 1)
+            throw new IllegalArgumentException("maxConcurrentQueries must be at least 1, was " + maxConcurrentQueries);
+        this.maxConcurrentQueries = maxConcurrentQueries;
+    }
+
+    /**
+     * <h1>execute</h1>
+     * <p>
+     * This method submits every query to a thread pool and waits for all of them to complete. If one of the queries
+     * fails, the queries that haven't completed yet are cancelled and the error is thrown.
+     *
+     * @param queries   This is the list of queries, in chunk order.
+     * @param queryCall This is the call that sends one query to the API.
+     * @param <T>       This is the type of the query.
+     * @param <R>       This is the type of the result.
+     * @return Returns the query results in the same order as the queries.
+     * @throws IOException Throws IOException if one of the queries fails.
+     */
+    public <T, R> List<R> execute(List<T> queries, QueryCall<T, R> queryCall) throws IOException {
+        List<R> results = new ArrayList<>();
+        if (queries.isEmpty())
+            return results;
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxConcurrentQueries, queries.size()), runnable -> {
+            Thread thread = new Thread(runnable, "ssb-table-query");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<R>> futures = new ArrayList<>();
+            for (T query : queries) {
+                futures.add(executor.submit(() -> queryCall.call(query)));
+            }
+            for (Future<R> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException)
+                throw (IOException) ee.getCause();
+            throw new IOException("Table query failed", ee.getCause());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for table queries");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * <h1>getMaxConcurrentQueries</h1>
+     *
+     * @return Returns the maximum number of queries running at the same time.
+     */
+    public int getMaxConcurrentQueries() {
+        return maxConcurrentQueries;
+    }
+}
@@ -1,10 +1,13 @@
 package no.ks.fiks.ssbAPI.builder;
 
+import no.ks.fiks.ssbAPI.klassApi.KlassValidityIndex;
 import no.ks.fiks.ssbAPI.klassApi.SsbKlass;
 import no.ks.fiks.ssbAPI.metadataApi.SsbMetadata;
 import no.ks.fiks.ssbAPI.metadataApi.SsbMetadataVariables;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -16,14 +19,18 @@ import java.util.stream.IntStream;
  * MetadataBuilder handles the building of the metadata that will be used for each query, depending on
  * if you have added classification codes and what data is available in the metadata. It returns a map of lists in which
  * it filters out regions not valid in the years you are querying or if no classification codes are provided, returns
- * the same map unfiltered. It also makes sure the metadata it builds up doesn't exceed 800000 rows. Before it reaches
- * 800000 rows, it starts on a new list.
+ * the same map unfiltered. It also makes sure the metadata it builds up doesn't exceed the cell limit per query, which
+ * is {@link #MAX_CELLS} unless a limit learned for the table is given. Before it reaches the limit, it starts on a new
+ * list.
  */
 
 public class MetadataBuilder {
 
+    public static final long MAX_CELLS = 750000;
+
     private final SsbMetadata metadata;
     private final SsbKlass klass;
+    private final long maxCells;
     private final Map<Integer, List<SsbMetadataVariables>> builtMetadata;
     private int query = 0;
 
@@ -37,8 +44,26 @@ public class MetadataBuilder {
      */
 
     public MetadataBuilder(SsbMetadata metadata, SsbKlass klass) {
+        this(metadata, klass, MAX_CELLS);
+    }
+
+    /**
+     * <h1>MetadataBuilder</h1>
+     * <p>
+     * Constructor with the cell limit per query, like the limit {@link no.ks.fiks.ssbAPI.APIService.QueryCellLimit}
+     * has learned for the table.
+     *
+     * @param metadata This is the metadata object from SsbApiClass
+     * @param klass    This is the metadata object from SsbApiClass
+     * @param maxCells This is the highest number of cells per query.
+     */
+
+    public MetadataBuilder(SsbMetadata metadata, SsbKlass klass, long maxCells) {
+        if (maxCells < 1)
+            throw new IllegalArgumentException("maxCells must be at least 1, was " + maxCells);
         this.metadata = metadata;
         this.klass = klass;
+        this.maxCells = maxCells;
         this.builtMetadata = new LinkedHashMap<>();
     }
 
@@ -69,13 +94,18 @@ public class MetadataBuilder {
      * We also save space by filtering out region codes that did not exist in that year. Important to note that it does
      * not filter rows that are null in years when the region is valid.
      * <p>
-     * By checking the region in the metadata against the classification code list, we can find if the region is valid
-     * for the year we are querying. If it is, then the method adds it to the list. Once that list might pass 800k rows
-     * it adds that list to the Map and empties the list.
+     * By checking the region in the metadata against the classification code list, we find the regions that are valid
+     * for each year we are querying. Each region is looked up in the classification's {@link KlassValidityIndex} once,
+     * and the valid regions of a year are read from the index's bitset for the year, once per year, so the periods of
+     * a year, like quarters or months, share them, and the cells of a query are counted from the product of the other
+     * variables, which is only computed once. Years with the same valid regions are grouped, since they can be queried together
+     * without asking for a region in a year it wasn't valid, and each group is packed into as few queries as the cell
+     * limit allows with {@link #packGroup(SsbMetadataVariables, BitSet, SsbMetadataVariables, BitSet, long)}. Years
+     * without any valid regions aren't queried.
      * <p>
      * It returns a map with an Integer key, so we can identify how many queries will be done, this is so we can follow
-     * the API limitation of 30 queries per 60 seconds. It also uses a map so each map insert can be built as a separate
-     * query. A check for 30 queries per 60 seconds will be implemented in the future.
+     * the API limitation of 30 queries per 60 seconds, which is kept by {@link no.ks.fiks.ssbAPI.APIService.SsbRateLimiter}.
+     * It also uses a map so each map insert can be built as a separate query.
      * <p>
      * NOTE: On tables that has 0 as the whole country instead of EAK, we have to switch 0 to EAK and back again. This is done
      * because no classification code list has 0 to identify the whole country.
@@ -83,130 +113,291 @@ public class MetadataBuilder {
      * @see SsbMetadata
      * @see SsbMetadataVariables
      * @see SsbKlass
-     * @see no.ks.fiks.ssbAPI.klassApi.SsbKlassCodes
+     * @see KlassValidityIndex
      * @see #findTidInList()
      * @see #findRegionInList()
-     * @see #checkSize(List, boolean, String)
-     * @see #addToMap(String, SsbMetadataVariables, SsbMetadataVariables, List, List)
+     * @see #cellsExcept(SsbMetadataVariables...)
+     * @see #addToMap(SsbMetadataVariables, SsbMetadataVariables)
      */
 
     private void buildFilteredMetadata() {
         SsbMetadataVariables tidVar = metadata.getVariables().get(findTidInList());
         SsbMetadataVariables regionVar = metadata.getVariables().get(findRegionInList());
-        boolean added = false;
-        for (String sTid : tidVar.getValues()) {
-            List<String> regionValues = new ArrayList<>();
-            List<String> regionValueTexts = new ArrayList<>();
-
-            int tid = Integer.parseInt(sTid);
-
-            for (String region : regionVar.getValues()) {
-                boolean changedRegion = false;
-                if (region.equals("0")) {
-                    changedRegion = true;
-                    region = "EAK";
-                }
-                if (!klass.getKlassCodesResultJson().containsKey(region))
-                    continue;
+        KlassValidityIndex validity = klass.getValidityIndex();
+        int[] ordinals = new int[regionVar.size()];
+        for (int regionPosition = 0; regionPosition < regionVar.size(); regionPosition++) {
+            String region = regionVar.getValue(regionPosition);
+            if (region.equals("0")) {
+                region = "EAK";
+            }
+            ordinals[regionPosition] = validity.ordinalOf(region);
+        }
 
-                if (tid >= klass.getKlassCodesResultJson().get(region).getFromYear()
-                        && tid < klass.getKlassCodesResultJson().get(region).getToYear()) {
-                    if (region.equals("EAK") && changedRegion) {
-                        region = "0";
-                    }
-                    if (checkSize(regionValues, true, regionVar.getText()) >= 750000) {
-                        addToMap(sTid, tidVar, regionVar, regionValues, regionValueTexts);
-                        added = true;
-                        regionValues = new ArrayList<>();
-                        regionValueTexts = new ArrayList<>();
-                        int i = regionVar.getValues().indexOf(region);
-                        regionValues.add(region);
-                        regionValueTexts.add(regionVar.getValues().get(i));
-                    } else {
-                        int i = regionVar.getValues().indexOf(region);
-                        regionValues.add(region);
-                        regionValueTexts.add(regionVar.getValues().get(i));
-                        added = false;
-                    }
+        Map<Integer, BitSet> regionsByYear = new HashMap<>();
+        Map<BitSet, BitSet> periodsByRegions = new LinkedHashMap<>();
+        for (int tidPosition = 0; tidPosition < tidVar.size(); tidPosition++) {
+            BitSet regionPositions = regionsByYear.computeIfAbsent(year(tidVar.getValue(tidPosition)), tid -> {
+                BitSet valid = validity.validIn(tid);
+                BitSet positions = new BitSet(ordinals.length);
+                for (int regionPosition = 0; regionPosition < ordinals.length; regionPosition++) {
+                    if (ordinals[regionPosition] >= 0 && valid.get(ordinals[regionPosition]))
+                        positions.set(regionPosition);
                 }
+                return positions;
+            });
+            if (!regionPositions.isEmpty())
+                periodsByRegions.computeIfAbsent(regionPositions, regions -> new BitSet(tidVar.size())).set(tidPosition);
+        }
+
+        long cellsPerRegionAndPeriod = cellsExcept(tidVar, regionVar);
+        for (Map.Entry<BitSet, BitSet> group : periodsByRegions.entrySet()) {
+            packGroup(tidVar, group.getValue(), regionVar, group.getKey(), cellsPerRegionAndPeriod);
+        }
+    }
+
+    /**
+     * <h1>year</h1>
+     *
+     * @param period This is a value of the 'Tid' variable, like '2020', '2020K1' or '2020M01'.
+     * @return Returns the year of the period.
+     * @throws NumberFormatException Throws NumberFormatException if the period doesn't start with a year.
+     */
+    private static int year(String period) {
+        return Integer.parseInt(period.length() > 4 ? period.substring(0, 4) : period);
+    }
+
+    /**
+     * <h1>packGroup</h1>
+     * <p>
+     * This method splits a group of periods with the same valid regions into blocks of periods times regions, and adds
+     * a query for each block. The block size is the one that gives the fewest queries where each query stays under
+     * the cell limit, so a small table gets all its periods in one query, while a big one gets one period and as
+     * many regions as fit per query.
+     *
+     * @param tidVar                  This is the 'Tid' variable.
+     * @param periods                 This is the positions of the periods in the group.
+     * @param regionVar               This is the region variable.
+     * @param regions                 This is the positions of the regions valid in every period of the group.
+     * @param cellsPerRegionAndPeriod This is the number of cells for one region in one period.
+     */
+    private void packGroup(SsbMetadataVariables tidVar, BitSet periods, SsbMetadataVariables regionVar, BitSet regions,
+                           long cellsPerRegionAndPeriod) {
+        int[] periodPositions = periods.stream().toArray();
+        int[] regionPositions = regions.stream().toArray();
+        int[] block = blockSize(periodPositions.length, regionPositions.length, cellsPerRegionAndPeriod, maxCells);
+        for (int p = 0; p < periodPositions.length; p += block[0]) {
+            SsbMetadataVariables tidSlice = tidVar.slice(toBitSet(periodPositions, p, p + block[0]));
+            for (int r = 0; r < regionPositions.length; r += block[1]) {
+                addToMap(tidSlice, regionVar.slice(toBitSet(regionPositions, r, r + block[1])));
             }
-            if (!added) {
-                addToMap(sTid, tidVar, regionVar, regionValues, regionValueTexts);
+        }
+    }
+
+    /**
+     * <h1>blockSize</h1>
+     * <p>
+     * This method tries every number of periods per query, with as many regions as fit beside them, and keeps the
+     * one that needs the fewest queries.
+     *
+     * @param periods                 This is the number of periods.
+     * @param regions                 This is the number of regions.
+     * @param cellsPerRegionAndPeriod This is the number of cells for one region in one period.
+     * @param maxCells                This is the highest number of cells per query.
+     * @return Returns the number of periods and the number of regions per query.
+     */
+    static int[] blockSize(int periods, int regions, long cellsPerRegionAndPeriod, long maxCells) {
+        int[] best = {1, 1};
+        long bestQueries = (long) periods * regions;
+        for (int p = 1; p <= periods; p++) {
+            long r = Math.min(regions, maxCells / multiply(p, cellsPerRegionAndPeriod));
+            if (r < 1)
+                break;
+            long queries = ((periods + p - 1) / p) * ((regions + r - 1) / r);
+            if (queries < bestQueries) {
+                bestQueries = queries;
+                best = new int[]{p, (int) r};
             }
         }
+        return best;
+    }
+
+    private static BitSet toBitSet(int[] positions, int from, int to) {
+        BitSet bits = new BitSet();
+        for (int i = from; i < Math.min(to, positions.length); i++) {
+            bits.set(positions[i]);
+        }
+        return bits;
     }
 
     /**
      * <h1>buildUnfilteredMetadata</h1>
      * <p>
-     * This method is practically the same as buildFilteredMetadata, but it ignores all filtering based on
-     * classification code lists and years. It's also the method that handles tables without 'Region' metadata. See the
-     * {@link #buildFilteredMetadata()} method.
+     * This method builds the queries without any filtering based on classification code lists and years. It's also
+     * the method that handles tables without 'Region' metadata.
+     * <p>
+     * Any of the variables can be split, not just the first one, since a table where the first variable has few values
+     * can have more cells than the limit for each of them. The split is planned by
+     * {@link #planSplit(long[], long)}, and each query then has one value of each pinned variable, a contiguous block of the
+     * partial variable and all values of the other variables.
      *
      * @see #buildFilteredMetadata()
+     * @see #planSplit(long[], long)
      */
 
     private void buildUnfilteredMetadata() {
-        SsbMetadataVariables firstVar = metadata.getVariables().get(0);
-        boolean added = false;
-
-        List<String> firstVarValues = new ArrayList<>();
-        List<String> firstVarValueTexts = new ArrayList<>();
-
-        for (String firstVariable : firstVar.getValues()) {
-            if (checkSize(firstVarValues, false, firstVar.getText()) >= 750000) {
-                addToMap("", null, firstVar, firstVarValues, firstVarValueTexts);
-                added = true;
-                firstVarValues = new ArrayList<>();
-                firstVarValueTexts = new ArrayList<>();
-                int i = firstVar.getValues().indexOf(firstVariable);
-                firstVarValues.add(firstVariable);
-                firstVarValueTexts.add(firstVar.getValues().get(i));
-            } else {
-                int i = firstVar.getValues().indexOf(firstVariable);
-                firstVarValues.add(firstVariable);
-                firstVarValueTexts.add(firstVar.getValues().get(i));
-                added = false;
+        List<SsbMetadataVariables> variables = metadata.getVariables();
+        long[] sizes = new long[variables.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = Math.max(1, variables.get(i).size());
+        }
+        Split split = planSplit(sizes, maxCells);
+
+        int[] pinnedPositions = new int[variables.size()];
+        while (true) {
+            int partialSize = split.partial < 0 ? 1 : variables.get(split.partial).size();
+            for (int from = 0; from < Math.max(1, partialSize); from += split.block) {
+                List<SsbMetadataVariables> chunk = new ArrayList<>(variables.size());
+                for (int i = 0; i < variables.size(); i++) {
+                    SsbMetadataVariables variable = variables.get(i);
+                    if (split.pinned[i] && variable.size() > 0)
+                        chunk.add(variable.slice(pinnedPositions[i], pinnedPositions[i] + 1));
+                    else if (i == split.partial && variable.size() > 0)
+                        chunk.add(variable.slice(from, (int) Math.min(variable.size(), (long) from + split.block)));
+                    else
+                        chunk.add(new SsbMetadataVariables(variable));
+                }
+                addToMap(chunk);
             }
+            int i = variables.size() - 1;
+            while (i >= 0 && (!split.pinned[i] || ++pinnedPositions[i] >= sizes[i])) {
+                if (split.pinned[i])
+                    pinnedPositions[i] = 0;
+                i--;
+            }
+            if (i < 0)
+                return;
         }
+    }
 
-        if (!added) {
-            addToMap("", null, firstVar, firstVarValues, firstVarValueTexts);
+    /**
+     * <h1>planSplit</h1>
+     * <p>
+     * This method finds the split of the variables that needs the fewest queries under the cell limit. Each
+     * variable is either pinned, with one value per query, partial, with a block of values per query, or whole. Every
+     * combination of pinned variables and partial variable is tried, which is fine since tables have few variables.
+     * When two splits need as many queries, the one with fewer pinned variables and the earliest partial variable is
+     * kept, so the first variable is split like before when that is as good.
+     *
+     * @param sizes    This is the number of values of each variable.
+     * @param maxCells This is the highest number of cells per query.
+     * @return Returns the split.
+     */
+    static Split planSplit(long[] sizes, long maxCells) {
+        int n = sizes.length;
+        Split best = null;
+        for (int mask = 0; mask < (1 << n); mask++) {
+            long pinnedQueries = 1;
+            long wholeCells = 1;
+            for (int i = 0; i < n; i++) {
+                if ((mask & (1 << i)) != 0)
+                    pinnedQueries = multiply(pinnedQueries, sizes[i]);
+                else
+                    wholeCells = multiply(wholeCells, sizes[i]);
+            }
+            if (wholeCells <= maxCells)
+                best = better(best, new Split(mask, n, -1, 1, pinnedQueries));
+            for (int partial = 0; partial < n; partial++) {
+                if ((mask & (1 << partial)) != 0)
+                    continue;
+                long otherCells = 1;
+                for (int i = 0; i < n; i++) {
+                    if ((mask & (1 << i)) == 0 && i != partial)
+                        otherCells = multiply(otherCells, sizes[i]);
+                }
+                long block = Math.min(sizes[partial], maxCells / otherCells);
+                if (block < 1)
+                    continue;
+                long queries = multiply(pinnedQueries, (sizes[partial] + block - 1) / block);
+                best = better(best, new Split(mask, n, partial, (int) block, queries));
+            }
+        }
+        return best;
+    }
+
+    private static Split better(Split best, Split candidate) {
+        if (best == null || candidate.queries < best.queries)
+            return candidate;
+        if (candidate.queries == best.queries && candidate.pinnedCount < best.pinnedCount)
+            return candidate;
+        return best;
+    }
+
+    private static long multiply(long a, long b) {
+        long product = a * b;
+        if (a != 0 && (product / a != b || product < 0))
+            return Long.MAX_VALUE;
+        return product;
+    }
+
+    /**
+     * <h1>Split</h1>
+     * <p>
+     * A split of the variables of a table: which are pinned to one value per query, which one is cut in blocks, and
+     * how many queries that gives.
+     */
+    static class Split {
+        final boolean[] pinned;
+        final int pinnedCount;
+        final int partial;
+        final int block;
+        final long queries;
+
+        private Split(int mask, int variables, int partial, int block, long queries) {
+            this.pinned = new boolean[variables];
+            for (int i = 0; i < variables; i++) {
+                pinned[i] = (mask & (1 << i)) != 0;
+            }
+            this.pinnedCount = Integer.bitCount(mask);
+            this.partial = partial;
+            this.block = block;
+            this.queries = queries;
         }
     }
 
     /**
      * <h1>addToMap</h1>
      * <p>
-     * This method adds the lists from metadata and the custom build metadata to the Map.
-     * Loops through metadata variables and adds them to the Map.
+     * This method adds the slices built by {@link #buildFilteredMetadata()} and the other metadata variables to the
+     * Map. The slices share the dictionary of the metadata variables, so only
+     * the ordinals of the values are stored per query.
      *
-     * @param sTid                This is the String value of 'Tid'
-     * @param tidVar              This is the 'Tid' object from buildFilteredMetadata
-     * @param iteratingVar        This is variable object the {@link #buildFilteredMetadata()}/{@link #buildUnfilteredMetadata()} iterates on.
-     * @param iteratingValues     This is variable list of values the {@link #buildFilteredMetadata()}/{@link #buildUnfilteredMetadata()} built.
-     * @param iteratingValueTexts This is variable list of value texts the {@link #buildFilteredMetadata()}/{@link #buildUnfilteredMetadata()} built.
-     * @see SsbMetadataVariables
+     * @param tidSlice       This is the slice of 'Tid' for this query, or null if the whole 'Tid' variable is queried.
+     * @param iteratingSlice This is the slice of the variable the {@link #buildFilteredMetadata()} iterates on.
+     * @see SsbMetadataVariables#slice(BitSet)
      * @see #buildFilteredMetadata()
-     * @see #buildUnfilteredMetadata()
      */
 
-    private void addToMap(String sTid, SsbMetadataVariables tidVar, SsbMetadataVariables iteratingVar,
-                          List<String> iteratingValues, List<String> iteratingValueTexts) {
+    private void addToMap(SsbMetadataVariables tidSlice, SsbMetadataVariables iteratingSlice) {
         List<SsbMetadataVariables> tempList = new ArrayList<>();
         for (SsbMetadataVariables codes : metadata.getVariables()) {
-            if (tidVar != null && codes.getCode().equals(tidVar.getCode())) {
-                tempList.add(new SsbMetadataVariables(tidVar.getCode(),
-                        tidVar.getText(),
-                        List.of(sTid),
-                        List.of(tidVar.getValueTexts().get(tidVar.getValues().indexOf(sTid)))));
-            } else if (codes.getCode().equals(iteratingVar.getCode())) {
-                tempList.add(new SsbMetadataVariables(iteratingVar.getCode(), iteratingVar.getText(), iteratingValues, iteratingValueTexts));
+            if (tidSlice != null && codes.getCode().equals(tidSlice.getCode())) {
+                tempList.add(tidSlice);
+            } else if (codes.getCode().equals(iteratingSlice.getCode())) {
+                tempList.add(iteratingSlice);
             } else {
-                tempList.add(new SsbMetadataVariables(codes.getCode(), codes.getText(), codes.getValues(), codes.getValueTexts()));
+                tempList.add(new SsbMetadataVariables(codes));
             }
         }
-        builtMetadata.put(query++, tempList);
+        addToMap(tempList);
+    }
+
+    /**
+     * <h1>addToMap</h1>
+     *
+     * @param chunk This is the metadata variables of one query, in the order of the metadata.
+     */
+    private void addToMap(List<SsbMetadataVariables> chunk) {
+        builtMetadata.put(query++, chunk);
     }
 
     /**
@@ -238,24 +429,24 @@ public class MetadataBuilder {
     }
 
     /**
-     * <h1>checkSize</h1>
-     * This method calculates the size of the current list of metadata.
+     * <h1>cellsExcept</h1>
+     * This method multiplies the number of values of every metadata variable except the ones given. The planners call
+     * it once and count the cells of a query from the sizes of its slices, instead of multiplying every variable for
+     * each value they add. Variables without values are left out of the query, so they count as one.
      *
-     * @param iteratingVar     This is the variable we will be iterating on.
-     * @param filtered         This is to check if it's coming from {@link #buildFilteredMetadata()} or {@link #buildUnfilteredMetadata()}.
-     * @param iteratingVarName This is the name of the metadata we are iterating on.
-     * @return Returns the size of the list.
+     * @param excluded This is the variables the planner slices.
+     * @return Returns the number of cells for one value of each excluded variable, or Long.MAX_VALUE if it overflows.
      */
 
-    private int checkSize(List<String> iteratingVar, boolean filtered, String iteratingVarName) {
-        int count = 1;
+    private long cellsExcept(SsbMetadataVariables... excluded) {
+        long count = 1;
         for (SsbMetadataVariables metadataVariables : metadata.getVariables()) {
-            if (filtered && metadataVariables.getCode().equalsIgnoreCase("Tid"))
-                count = count * 1;
-            else if (metadataVariables.getText().equalsIgnoreCase(iteratingVarName))
-                count = count * iteratingVar.size();
-            else
-                count = count * metadataVariables.getValues().size();
+            boolean skip = false;
+            for (SsbMetadataVariables variable : excluded) {
+                skip |= metadataVariables.getCode().equals(variable.getCode());
+            }
+            if (!skip)
+                count = multiply(count, Math.max(1, metadataVariables.size()));
         }
         return count;
     }
@@ -263,4 +454,26 @@ public class MetadataBuilder {
     public Map<Integer, List<SsbMetadataVariables>> getBuiltMetadata() {
         return builtMetadata;
     }
+
+    /**
+     * <h1>getChunks</h1>
+     *
+     * @return Returns the built metadata as a list of chunks, in query order.
+     */
+    public List<TableChunk> getChunks() {
+        List<TableChunk> chunks = new ArrayList<>();
+        for (Map.Entry<Integer, List<SsbMetadataVariables>> entry : builtMetadata.entrySet()) {
+            chunks.add(new TableChunk(entry.getKey(), entry.getValue()));
+        }
+        return chunks;
+    }
+
+    /**
+     * <h1>getMaxCells</h1>
+     *
+     * @return Returns the highest number of cells per query the chunks were planned with.
+     */
+    public long getMaxCells() {
+        return maxCells;
+    }
 }
@@ -0,0 +1,46 @@
+package no.ks.fiks.ssbAPI.builder;
+
+import no.ks.fiks.ssbAPI.metadataApi.SsbMetadataVariables;
+
+import java.util.List;
+
+/**
+ * <h1>TableChunk</h1>
+ * <p>
+ * Simple class for one chunk of the metadata built by {@link MetadataBuilder}. Each chunk is sent as a separate query.
+ */
+
+public class TableChunk {
+
+    private final int key;
+    private final List<SsbMetadataVariables> variables;
+
+    /**
+     * Initializes the variables.
+     *
+     * @param key       This is the key of the chunk in {@link MetadataBuilder#getBuiltMetadata()}.
+     * @param variables This is the metadata variables the query for this chunk is built from.
+     */
+    public TableChunk(int key, List<SsbMetadataVariables> variables) {
+        this.key = key;
+        this.variables = variables;
+    }
+
+    /**
+     * <h1>getKey</h1>
+     *
+     * @return Returns the key of the chunk, which is also its position in the query order.
+     */
+    public int getKey() {
+        return key;
+    }
+
+    /**
+     * <h1>getVariables</h1>
+     *
+     * @return Returns the metadata variables the query for this chunk is built from.
+     */
+    public List<SsbMetadataVariables> getVariables() {
+        return variables;
+    }
+}
@@ -0,0 +1,248 @@
+package no.ks.fiks.ssbAPI.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * <h1>DiskResponseCache</h1>
+ * <p>
+ * DiskResponseCache keeps the raw responses from the metadata and classification APIs in a directory, so they
+ * survive between JVM starts. Each response is stored with the ETag and Last-Modified headers the server sent, so
+ * {@link no.ks.fiks.ssbAPI.APIService.SsbApiCall} can revalidate it with a conditional GET, which is answered with a
+ * short 304 when nothing has changed.
+ * <p>
+ * In offline mode the cached responses are used without asking the server at all, and a call for a response that is
+ * not in the cache fails.
+ * <p>
+ * The cache used by default is set with the system properties {@value #DIRECTORY_PROPERTY} and
+ * {@value #OFFLINE_PROPERTY}, and is shared by all SsbApiCall objects in the JVM, see {@link #getDefault()}.
+ */
+
+public class DiskResponseCache {
+
+    public static final String DIRECTORY_PROPERTY = "ssb.cache.dir";
+    public static final String OFFLINE_PROPERTY = "ssb.cache.offline";
+
+    private static Optional<DiskResponseCache> defaultCache;
+
+    private final Path directory;
+    private final boolean offline;
+
+    /**
+     * Initializes the cache and creates the directory if it doesn't exist.
+     *
+     * @param directory This is the directory the responses are stored in.
+     * @param offline   This is true if cached responses should be used without asking the server.
+     * @throws IOException Throws IOException if the directory could not be created.
+     */
+    public DiskResponseCache(Path directory, boolean offline) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.offline = offline;
+    }
+
+    /**
+     * <h1>fromSystemProperties</h1>
+     *
+     * @return Returns a cache in the directory from the {@value #DIRECTORY_PROPERTY} system property, in offline mode
+     * if {@value #OFFLINE_PROPERTY} is true, or an empty Optional if the directory property isn't set.
+     */
+    public static Optional<DiskResponseCache> fromSystemProperties() {
+        String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (directory == null || directory.isBlank())
+            return Optional.empty();
+        try {
+            return Optional.of(new DiskResponseCache(Paths.get(directory), Boolean.getBoolean(OFFLINE_PROPERTY)));
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Could not create cache directory " + directory, ioe);
+        }
+    }
+
+    /**
+     * <h1>getDefault</h1>
+     * <p>
+     * The cache is created from the system properties with {@link #fromSystemProperties()} the first time this method
+     * is called, and the same cache is returned after that.
+     *
+     * @return Returns the cache shared by all SsbApiCall objects in the JVM, or an empty Optional if the directory
+     * property wasn't set.
+     */
+    public static synchronized Optional<DiskResponseCache> getDefault() {
+        if (defaultCache == null)
+            defaultCache = fromSystemProperties();
+        return defaultCache;
+    }
+
+    /**
+     * <h1>get</h1>
+     *
+     * @param url This is the URL the response came from.
+     * @return Returns the cached response, or an empty Optional if it isn't cached.
+     * @throws IOException Throws IOException if the cached headers could not be read.
+     */
+    public Optional<CachedResponse> get(String url) throws IOException {
+        String name = fileName(url);
+        Path body = directory.resolve(name + ".body");
+        Path headers = directory.resolve(name + ".properties");
+        if (!Files.exists(body) || !Files.exists(headers))
+            return Optional.empty();
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(headers)) {
+            properties.load(in);
+        }
+        if (!url.equals(properties.getProperty("url")))
+            return Optional.empty();
+        return Optional.of(new CachedResponse(body,
+                Optional.ofNullable(properties.getProperty("etag")),
+                Optional.ofNullable(properties.getProperty("lastModified"))));
+    }
+
+    /**
+     * <h1>put</h1>
+     * <p>
+     * Stores a response. The files are written to temporary files first and then moved in place, so a JVM that stops
+     * while writing never leaves a half written response behind.
+     *
+     * @param url          This is the URL the response came from.
+     * @param body         This is the response body.
+     * @param etag         This is the ETag header, if the server sent one.
+     * @param lastModified This is the Last-Modified header, if the server sent one.
+     * @throws IOException Throws IOException if the response could not be stored.
+     */
+    public void put(String url, String body, Optional<String> etag, Optional<String> lastModified) throws IOException {
+        String name = fileName(url);
+        Properties properties = new Properties();
+        properties.setProperty("url", url);
+        etag.ifPresent(value -> properties.setProperty("etag", value));
+        lastModified.ifPresent(value -> properties.setProperty("lastModified", value));
+
+        Path bodyTemp = Files.createTempFile(directory, name, ".tmp");
+        Path headersTemp = Files.createTempFile(directory, name, ".tmp");
+        try {
+            Files.writeString(bodyTemp, body, StandardCharsets.UTF_8);
+            try (OutputStream out = Files.newOutputStream(headersTemp)) {
+                properties.store(out, null);
+            }
+            move(bodyTemp, directory.resolve(name + ".body"));
+            move(headersTemp, directory.resolve(name + ".properties"));
+        } finally {
+            Files.deleteIfExists(bodyTemp);
+            Files.deleteIfExists(headersTemp);
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException amnse) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * <h1>fileName</h1>
+     *
+     * @param url This is the URL the response came from.
+     * @return Returns the SHA-256 of the URL as hex, used as the file name.
+     */
+    private static String fileName(String url) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException("SHA-256 is not available", nsae);
+        }
+    }
+
+    /**
+     * <h1>getDirectory</h1>
+     *
+     * @return Returns the directory the responses are stored in.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * <h1>isOffline</h1>
+     *
+     * @return Returns true if cached responses are used without asking the server.
+     */
+    public boolean isOffline() {
+        return offline;
+    }
+
+    /**
+     * <h1>CachedResponse</h1>
+     * <p>
+     * Simple class for a response stored in the cache.
+     */
+    public static class CachedResponse {
+        private final Path body;
+        private final Optional<String> etag;
+        private final Optional<String> lastModified;
+
+        private CachedResponse(Path body, Optional<String> etag, Optional<String> lastModified) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * <h1>readBody</h1>
+         *
+         * @return Returns the cached response body.
+         * @throws IOException Throws IOException if the body could not be read.
+         */
+        public String readBody() throws IOException {
+            return Files.readString(body, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * <h1>getEtag</h1>
+         *
+         * @return Returns the ETag header the server sent with the response.
+         */
+        public Optional<String> getEtag() {
+            return etag;
+        }
+
+        /**
+         * <h1>getLastModified</h1>
+         *
+         * @return Returns the Last-Modified header the server sent with the response.
+         */
+        public Optional<String> getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * <h1>getConditionalHeaders</h1>
+         *
+         * @return Returns the If-None-Match and If-Modified-Since headers for revalidating the response.
+         */
+        public Map<String, String> getConditionalHeaders() {
+            Map<String, String> headers = new LinkedHashMap<>();
+            etag.ifPresent(value -> headers.put("If-None-Match", value));
+            lastModified.ifPresent(value -> headers.put("If-Modified-Since", value));
+            return headers;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package no.ks.fiks.ssbAPI.cache;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * <h1>StringPool</h1>
+ * <p>
+ * StringPool is a process-wide pool of the codes and texts read from the metadata and classification APIs. Many tables
+ * share the same dimensions, like the about 1000 municipality codes and names in the region variable, so by interning
+ * them when parsing, each string is only kept once no matter how many tables' metadata is held.
+ * <p>
+ * The pool only holds weak references, so a string is removed from the pool when no metadata uses it anymore. The pool
+ * is split in segments with their own lock, so classifications parsed on several threads don't wait on each other.
+ */
+
+public final class StringPool {
+
+    private static final int SEGMENTS = 16;
+    private static final Segment[] POOL = new Segment[SEGMENTS];
+
+    static {
+        for (int i = 0; i < SEGMENTS; i++) {
+            POOL[i] = new Segment();
+        }
+    }
+
+    private StringPool() {
+    }
+
+    /**
+     * <h1>intern</h1>
+     *
+     * @param string This is the string to intern.
+     * @return Returns the equal string already in the pool, or adds the string and returns it if there is none.
+     */
+    public static String intern(String string) {
+        if (string == null)
+            return null;
+        return POOL[(string.hashCode() & 0x7fffffff) % SEGMENTS].intern(string);
+    }
+
+    /**
+     * <h1>size</h1>
+     *
+     * @return Returns the number of strings in the pool, including strings that are no longer used but haven't been
+     * removed by the garbage collector yet.
+     */
+    public static int size() {
+        int size = 0;
+        for (Segment segment : POOL) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private static class Segment {
+        private final Map<String, WeakReference<String>> strings = new WeakHashMap<>();
+
+        private synchronized String intern(String string) {
+            WeakReference<String> reference = strings.get(string);
+            String pooled = reference == null ? null : reference.get();
+            if (pooled != null)
+                return pooled;
+            strings.put(string, new WeakReference<>(string));
+            return string;
+        }
+
+        private synchronized int size() {
+            return strings.size();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package no.ks.fiks.ssbAPI.cache;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * <h1>TtlCache</h1>
+ * <p>
+ * TtlCache is a simple in-memory cache where each entry expires a fixed time after it was added. When the cache is
+ * full, the least recently used entry is evicted. It is thread-safe, and is used by
+ * {@link no.ks.fiks.ssbAPI.APIService.SsbApiCall} to share parsed metadata and classification codes between objects.
+ * <p>
+ * The cache hands out the values it holds, so values that can be changed should be copied before they are put in
+ * and after they are taken out.
+ *
+ * @param <K> This is the type of the keys.
+ * @param <V> This is the type of the values.
+ */
+
+public class TtlCache<K, V> {
+
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private volatile int maxEntries;
+    private volatile Duration ttl;
+    private long hits;
+    private long misses;
+
+    /**
+     * Initializes the cache.
+     *
+     * @param maxEntries This is the maximum number of entries before the least recently used is evicted.
+     * @param ttl        This is how long an entry is kept after it was added.
+     */
+    public TtlCache(int maxEntries, Duration ttl) {
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > TtlCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * <h1>get</h1>
+     *
+     * @param key This is the key to look up.
+     * @return Returns the value, or an empty Optional if there is no entry or it has expired.
+     */
+    public synchronized Optional<V> get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null || entry.expiresAt - System.nanoTime() <= 0) {
+            if (entry != null)
+                entries.remove(key);
+            misses++;
+            return Optional.empty();
+        }
+        hits++;
+        return Optional.of(entry.value);
+    }
+
+    /**
+     * <h1>put</h1>
+     * <p>
+     * Adds an entry, replacing any earlier entry for the key. Nothing is added if the cache is disabled by a max size
+     * of 0 or a ttl of 0.
+     *
+     * @param key   This is the key.
+     * @param value This is the value.
+     */
+    public synchronized void put(K key, V value) {
+        if (maxEntries <= 0 || ttl.isZero() || ttl.isNegative())
+            return;
+        entries.put(key, new Entry<>(value, System.nanoTime() + ttl.toNanos()));
+    }
+
+    /**
+     * <h1>invalidate</h1>
+     *
+     * @param key This is the key of the entry to remove.
+     */
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * <h1>clear</h1>
+     * <p>
+     * Removes every entry.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * <h1>size</h1>
+     *
+     * @return Returns the number of entries, including expired entries that haven't been looked up since.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * <h1>getHits</h1>
+     *
+     * @return Returns the number of lookups that found a value.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * <h1>getMisses</h1>
+     *
+     * @return Returns the number of lookups that didn't find a value.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * <h1>getMaxEntries</h1>
+     *
+     * @return Returns the maximum number of entries.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * <h1>setMaxEntries</h1>
+     * <p>
+     * Changes the maximum number of entries, the least recently used entries are evicted if there are too many.
+     * 0 disables the cache.
+     *
+     * @param maxEntries This is the maximum number of entries.
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+        while (entries.size() > Math.max(maxEntries, 0))
+            entries.remove(entries.keySet().iterator().next());
+    }
+
+    /**
+     * <h1>getTtl</h1>
+     *
+     * @return Returns how long an entry is kept after it was added.
+     */
+    public Duration getTtl() {
+        return ttl;
+    }
+
+    /**
+     * <h1>setTtl</h1>
+     * <p>
+     * Changes how long new entries are kept, entries already in the cache keep their old expiry. 0 disables the cache.
+     *
+     * @param ttl This is how long an entry is kept after it was added.
+     */
+    public void setTtl(Duration ttl) {
+        this.ttl = ttl;
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
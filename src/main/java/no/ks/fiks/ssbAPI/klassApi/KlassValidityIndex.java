@@ -0,0 +1,109 @@
+package no.ks.fiks.ssbAPI.klassApi;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <h1>KlassValidityIndex</h1>
+ * <p>
+ * KlassValidityIndex is a compact index of the years each classification code is valid in. Each code gets an ordinal,
+ * and its valid from and valid to years are kept in primitive arrays, so the years are only read from the dates once.
+ * The codes valid in a year are a {@link BitSet} over the ordinals, which is built the first time the year is asked
+ * for and then kept, so every table planned against the same classification reuses it.
+ * <p>
+ * The index is built by {@link SsbKlass#getValidityIndex()} and is a snapshot of the codes at that time.
+ */
+
+public final class KlassValidityIndex {
+
+    private final String[] codes;
+    private final int[] fromYears;
+    private final int[] toYears;
+    private final Map<String, Integer> ordinals;
+    private final Map<Integer, BitSet> validByYear = new ConcurrentHashMap<>();
+
+    /**
+     * Builds the index from the classification codes.
+     *
+     * @param klassCodes This is the classification codes.
+     */
+    KlassValidityIndex(Collection<SsbKlassCodes> klassCodes) {
+        this.codes = new String[klassCodes.size()];
+        this.fromYears = new int[codes.length];
+        this.toYears = new int[codes.length];
+        this.ordinals = new HashMap<>(codes.length * 4 / 3 + 1);
+        int ordinal = 0;
+        for (SsbKlassCodes code : klassCodes) {
+            codes[ordinal] = code.getRegionCode();
+            fromYears[ordinal] = code.getFromYear();
+            toYears[ordinal] = code.getToYear();
+            ordinals.put(code.getRegionCode(), ordinal++);
+        }
+    }
+
+    /**
+     * <h1>ordinalOf</h1>
+     *
+     * @param code This is the classification code.
+     * @return Returns the ordinal of the code in the index, or -1 if the code isn't in the classification.
+     */
+    public int ordinalOf(String code) {
+        Integer ordinal = ordinals.get(code);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * <h1>validIn</h1>
+     * <p>
+     * A code is valid in a year if the year is from and including its valid from year, to but not including its valid
+     * to year.
+     *
+     * @param year This is the year.
+     * @return Returns the ordinals of the codes valid in the year. The set is a copy, so it can be changed.
+     */
+    public BitSet validIn(int year) {
+        return (BitSet) validByYear.computeIfAbsent(year, this::buildYear).clone();
+    }
+
+    /**
+     * <h1>isValid</h1>
+     *
+     * @param ordinal This is the ordinal of the code.
+     * @param year    This is the year.
+     * @return Returns true if the code is valid in the year.
+     */
+    public boolean isValid(int ordinal, int year) {
+        return year >= fromYears[ordinal] && year < toYears[ordinal];
+    }
+
+    /**
+     * <h1>getCode</h1>
+     *
+     * @param ordinal This is the ordinal of the code.
+     * @return Returns the classification code.
+     */
+    public String getCode(int ordinal) {
+        return codes[ordinal];
+    }
+
+    /**
+     * <h1>size</h1>
+     *
+     * @return Returns the number of codes in the index.
+     */
+    public int size() {
+        return codes.length;
+    }
+
+    private BitSet buildYear(int year) {
+        BitSet valid = new BitSet(codes.length);
+        for (int ordinal = 0; ordinal < codes.length; ordinal++) {
+            if (isValid(ordinal, year))
+                valid.set(ordinal);
+        }
+        return valid;
+    }
+}
@@ -1,10 +1,18 @@
 package no.ks.fiks.ssbAPI.klassApi;
 
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import no.ks.fiks.ssbAPI.cache.StringPool;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -17,7 +25,10 @@ import java.util.Map;
  */
 
 public class SsbKlass {
+    private static final ObjectReader READER = new ObjectMapper().reader();
+
     private final Map<String, SsbKlassCodes> klassCodesResultJson;
+    private volatile KlassValidityIndex validityIndex;
 
     /**
      * Simple constructor that initializes the LinkedHashmap
@@ -26,6 +37,16 @@ public class SsbKlass {
         this.klassCodesResultJson = new LinkedHashMap<>();
     }
 
+    /**
+     * Constructor that makes a copy of another SsbKlass, so the copy can be changed without changing the original.
+     *
+     * @param source This is the classification codes to copy.
+     */
+    public SsbKlass(SsbKlass source) {
+        this();
+        merge(source);
+    }
+
     /**
      * <h1>convertStringToJson</h1>
      * <p>
@@ -38,25 +59,154 @@ public class SsbKlass {
      */
     public void convertStringToJson(List<String> klassCodes) throws JsonProcessingException {
         for (String codes : klassCodes) {
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode actualObj = mapper.readTree(codes);
-            for (JsonNode klassCode : actualObj.get("codes")) {
-                String regionKode = klassCode.get("code").asText();
-                String regionNavn = klassCode.get("name").asText();
-                LocalDate validFromInRequestedRange = LocalDate.parse(klassCode.get("validFromInRequestedRange").asText());
-                LocalDate validToInRequestedRange = LocalDate.parse(klassCode.get("validToInRequestedRange").asText());
-                if (klassCodesResultJson.containsKey(regionKode)) {
-                    if (validFromInRequestedRange.isBefore(klassCodesResultJson.get(regionKode).getValidFromInRequestedRange())) {
-                        klassCodesResultJson.get(regionKode).setValidFromInRequestedRange(validFromInRequestedRange);
-                    }
-                    if (validToInRequestedRange.isAfter(klassCodesResultJson.get(regionKode).getValidToInRequestedRange())) {
-                        klassCodesResultJson.get(regionKode).setValidToInRequestedRange(validToInRequestedRange);
-                    }
-                } else {
-                    klassCodesResultJson.put(regionKode, new SsbKlassCodes(regionKode, regionNavn, validFromInRequestedRange, validToInRequestedRange));
+            try (JsonParser parser = READER.createParser(codes)) {
+                readCodes(parser);
+            } catch (JsonProcessingException jpe) {
+                throw jpe;
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+    }
+
+    /**
+     * <h1>readCodes</h1>
+     * <p>
+     * This method reads one classification codes query result straight from the response and adds the codes the same
+     * way as {@link #convertStringToJson(List)}.
+     *
+     * @param klassCodes This is the classification codes query result.
+     * @throws IOException Throws IOException if the result can't be read or isn't valid classification codes.
+     */
+    public void readCodes(InputStream klassCodes) throws IOException {
+        try (JsonParser parser = READER.createParser(klassCodes)) {
+            readCodes(parser);
+        }
+    }
+
+    /**
+     * <h1>readCodes</h1>
+     * <p>
+     * This method reads the codes token by token with the shared {@link ObjectReader}, without building a tree of
+     * the JSON. The codes and names are interned in the {@link StringPool}, so they are shared with the region values
+     * of the metadata.
+     *
+     * @param parser This is the parser over the classification codes query result.
+     * @throws IOException Throws IOException if the result can't be read or isn't valid classification codes.
+     */
+    private void readCodes(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT)
+            throw new JsonParseException(parser, "Expected a classification codes object");
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (field.equals("codes") && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    readCode(parser);
                 }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * <h1>readCode</h1>
+     *
+     * @param parser This is the parser, positioned at the start of a code object.
+     * @throws IOException Throws IOException if the code can't be read.
+     */
+    private void readCode(JsonParser parser) throws IOException {
+        String regionKode = null;
+        String regionNavn = null;
+        String validFromInRequestedRange = null;
+        String validToInRequestedRange = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "code":
+                    regionKode = StringPool.intern(parser.getValueAsString());
+                    break;
+                case "name":
+                    regionNavn = StringPool.intern(parser.getValueAsString());
+                    break;
+                case "validFromInRequestedRange":
+                    validFromInRequestedRange = parser.getValueAsString();
+                    break;
+                case "validToInRequestedRange":
+                    validToInRequestedRange = parser.getValueAsString();
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        if (regionKode == null || validFromInRequestedRange == null || validToInRequestedRange == null)
+            throw new JsonParseException(parser, "Classification code " + regionKode + " is missing its code or valid dates");
+        try {
+            addCode(regionKode, regionNavn, LocalDate.parse(validFromInRequestedRange), LocalDate.parse(validToInRequestedRange));
+        } catch (DateTimeParseException dtpe) {
+            throw new JsonParseException(parser, "Classification code " + regionKode + " has an invalid date", dtpe);
+        }
+    }
+
+    /**
+     * <h1>merge</h1>
+     * <p>
+     * This method adds the codes of another SsbKlass to this one, the same way {@link #convertStringToJson(List)}
+     * adds the codes of several query results. The codes are copied, so the other SsbKlass is not changed later.
+     *
+     * @param other This is the classification codes to add.
+     */
+    public void merge(SsbKlass other) {
+        for (SsbKlassCodes codes : other.klassCodesResultJson.values()) {
+            addCode(codes.getRegionCode(), codes.getRegionName(),
+                    codes.getValidFromInRequestedRange(), codes.getValidToInRequestedRange());
+        }
+    }
+
+    /**
+     * <h1>addCode</h1>
+     * <p>
+     * This method adds a code to the LinkedHashMap. If the code is already there, the valid from and valid to dates
+     * are widened instead.
+     *
+     * @param regionKode                This is the region code.
+     * @param regionNavn                This is the region name.
+     * @param validFromInRequestedRange This is the date the region code is valid from.
+     * @param validToInRequestedRange   This is the date the region code is valid to.
+     */
+    private void addCode(String regionKode, String regionNavn, LocalDate validFromInRequestedRange, LocalDate validToInRequestedRange) {
+        validityIndex = null;
+        SsbKlassCodes existing = klassCodesResultJson.get(regionKode);
+        if (existing != null) {
+            if (validFromInRequestedRange.isBefore(existing.getValidFromInRequestedRange())) {
+                existing.setValidFromInRequestedRange(validFromInRequestedRange);
+            }
+            if (validToInRequestedRange.isAfter(existing.getValidToInRequestedRange())) {
+                existing.setValidToInRequestedRange(validToInRequestedRange);
             }
+        } else {
+            klassCodesResultJson.put(regionKode, new SsbKlassCodes(regionKode, regionNavn, validFromInRequestedRange, validToInRequestedRange));
+        }
+    }
+
+    /**
+     * <h1>getValidityIndex</h1>
+     * <p>
+     * The index is built the first time it's needed and kept until codes are added, so every table planned against
+     * these classification codes shares it. Dates changed directly on a {@link SsbKlassCodes} are not seen by an index
+     * that is already built.
+     *
+     * @return Returns the index of the years each code is valid in.
+     */
+    public KlassValidityIndex getValidityIndex() {
+        KlassValidityIndex index = validityIndex;
+        if (index == null) {
+            index = new KlassValidityIndex(klassCodesResultJson.values());
+            validityIndex = index;
         }
+        return index;
     }
 
     /**
@@ -1,13 +1,20 @@
 package no.ks.fiks.ssbAPI.metadataApi;
 
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import no.ks.fiks.ssbAPI.cache.StringPool;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 
 
 /**
@@ -16,7 +23,8 @@ import java.util.Optional;
  * It also filters the metadata if the a filter is provided.
  */
 public class SsbMetadata {
-    private final String metadataResult;
+    private static final ObjectReader READER = new ObjectMapper().reader();
+
     private final List<SsbMetadataVariables> variables;
     private String title;
     private Map<String, List<String>> metadataFilter;
@@ -29,9 +37,8 @@ public class SsbMetadata {
      * @throws JsonProcessingException
      */
     public SsbMetadata(String metadataResult) throws JsonProcessingException {
-        this.metadataResult = metadataResult;
         variables = new ArrayList<>();
-        convertStringToJson();
+        convertStringToJson(metadataResult);
     }
 
     /**
@@ -42,10 +49,62 @@ public class SsbMetadata {
      * @throws JsonProcessingException
      */
     public SsbMetadata(String metadataResult, Map<String, List<String>> metadataFilter) throws JsonProcessingException {
-        this.metadataResult = metadataResult;
         this.metadataFilter = metadataFilter;
         variables = new ArrayList<>();
-        convertStringToJson();
+        convertStringToJson(metadataResult);
+        filterMetadata();
+    }
+
+    /**
+     * This constructor is used to read the metadata query result straight from the response, without making it a
+     * String first.
+     *
+     * @param metadataResult This is the metadata query result.
+     * @throws IOException Throws IOException if the result can't be read or isn't valid metadata.
+     */
+    public SsbMetadata(InputStream metadataResult) throws IOException {
+        variables = new ArrayList<>();
+        try (JsonParser parser = READER.createParser(metadataResult)) {
+            readMetadata(parser);
+        }
+    }
+
+    /**
+     * This constructor is used to read the metadata query result straight from the response, with a metadata filter.
+     *
+     * @param metadataResult This is the metadata query result.
+     * @param metadataFilter This is the Map of the metadata which will be filtered.
+     * @throws IOException Throws IOException if the result can't be read or isn't valid metadata.
+     */
+    public SsbMetadata(InputStream metadataResult, Map<String, List<String>> metadataFilter) throws IOException {
+        this(metadataResult);
+        this.metadataFilter = metadataFilter;
+        filterMetadata();
+    }
+
+    /**
+     * This constructor makes a copy of already deserialized metadata, so the copy can be filtered without changing
+     * the original. Used when the metadata comes from a cache.
+     *
+     * @param source This is the metadata to copy.
+     */
+    public SsbMetadata(SsbMetadata source) {
+        this.title = source.title;
+        variables = new ArrayList<>();
+        for (SsbMetadataVariables var : source.variables) {
+            variables.add(new SsbMetadataVariables(var));
+        }
+    }
+
+    /**
+     * This constructor makes a copy of already deserialized metadata and filters the copy.
+     *
+     * @param source         This is the metadata to copy.
+     * @param metadataFilter This is the Map of the metadata which will be filtered.
+     */
+    public SsbMetadata(SsbMetadata source, Map<String, List<String>> metadataFilter) {
+        this(source);
+        this.metadataFilter = metadataFilter;
         filterMetadata();
     }
 
@@ -54,23 +113,91 @@ public class SsbMetadata {
      * <p>
      * This method deserializes the JSON string from the metadata query and adds them to an object list.
      *
+     * @param metadataResult This is the metadata query result.
      * @throws JsonProcessingException
      */
 
-    private void convertStringToJson() throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        JsonNode actualObj = mapper.readTree(metadataResult);
-        title = actualObj.get("title").asText();
-        for (JsonNode jn : actualObj.get("variables")) {
-            String code = jn.get("code").asText();
-            String text = jn.get("text").asText();
-            List<String> values = new ArrayList<>();
-            List<String> valueTexts = new ArrayList<>();
-            for (int i = 0; i < jn.get("values").size(); i++) {
-                values.add(jn.get("values").get(i).asText());
-                valueTexts.add(jn.get("valueTexts").get(i).asText());
+    private void convertStringToJson(String metadataResult) throws JsonProcessingException {
+        try (JsonParser parser = READER.createParser(metadataResult)) {
+            readMetadata(parser);
+        } catch (JsonProcessingException jpe) {
+            throw jpe;
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * <h1>readMetadata</h1>
+     * <p>
+     * This method reads the metadata token by token with the shared {@link ObjectReader}, and adds the values and value
+     * texts of each variable straight to its lists. No tree of the JSON is built, which matters for region variables
+     * with thousands of values. The codes and texts are interned in the {@link StringPool}.
+     *
+     * @param parser This is the parser over the metadata query result.
+     * @throws IOException Throws IOException if the result can't be read or isn't valid metadata.
+     */
+    private void readMetadata(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT)
+            throw new JsonParseException(parser, "Expected a metadata object");
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (field.equals("title")) {
+                title = parser.getText();
+            } else if (field.equals("variables") && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    variables.add(readVariable(parser));
+                }
+            } else {
+                parser.skipChildren();
             }
-            variables.add(new SsbMetadataVariables(code, text, values, valueTexts));
+        }
+    }
+
+    /**
+     * <h1>readVariable</h1>
+     *
+     * @param parser This is the parser, positioned at the start of a variable object.
+     * @return Returns the variable.
+     * @throws IOException Throws IOException if the variable can't be read or its values and value texts don't match.
+     */
+    private SsbMetadataVariables readVariable(JsonParser parser) throws IOException {
+        String code = null;
+        String text = null;
+        List<String> values = new ArrayList<>();
+        List<String> valueTexts = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "code":
+                    code = StringPool.intern(parser.getText());
+                    break;
+                case "text":
+                    text = StringPool.intern(parser.getText());
+                    break;
+                case "values":
+                    readStrings(parser, values);
+                    break;
+                case "valueTexts":
+                    readStrings(parser, valueTexts);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        if (code == null || values.size() != valueTexts.size())
+            throw new JsonParseException(parser, "Metadata variable " + code + " has " + values.size()
+                    + " values and " + valueTexts.size() + " value texts");
+        return new SsbMetadataVariables(code, text, values, valueTexts);
+    }
+
+    private static void readStrings(JsonParser parser, List<String> list) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY)
+            throw new JsonParseException(parser, "Expected an array");
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            list.add(parser.getText());
         }
     }
 
@@ -98,19 +225,15 @@ public class SsbMetadata {
      * This method calls on the filter method in SsbMetadataVariables to filter out or only use the filters in the list.
      */
     private void filterMetadata() {
-        for (String key : metadataFilter.keySet()) {
-            String strippedKey;
-            if (key.contains("!"))
-                strippedKey = key.replace("!", "");
-            else {
-                strippedKey = key;
-            }
-            String finalStrippedKey = strippedKey;
-            Optional<SsbMetadataVariables> metadataVariables =  variables.stream()
-                    .filter(var -> var.getCode().equals(finalStrippedKey))
-                    .findFirst();
-
-            metadataVariables.ifPresent(ssbMetadataVariables -> ssbMetadataVariables.filterValuesAndValueTexts(key, metadataFilter.get(key)));
+        Map<String, SsbMetadataVariables> variablesByCode = new HashMap<>();
+        for (SsbMetadataVariables variable : variables) {
+            variablesByCode.putIfAbsent(variable.getCode(), variable);
+        }
+        for (Map.Entry<String, List<String>> filter : metadataFilter.entrySet()) {
+            String key = filter.getKey();
+            SsbMetadataVariables metadataVariables = variablesByCode.get(key.replace("!", ""));
+            if (metadataVariables != null)
+                metadataVariables.filterValuesAndValueTexts(key, filter.getValue());
         }
     }
 }
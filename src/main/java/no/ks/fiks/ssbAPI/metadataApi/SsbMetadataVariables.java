@@ -1,18 +1,32 @@
 package no.ks.fiks.ssbAPI.metadataApi;
 
+import no.ks.fiks.ssbAPI.cache.StringPool;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 /**
  * <h1>SsbMetadataVariables</h1>
  * This class is a simple POJO class with a filter method for filtering the metadata.
+ * <p>
+ * The values and value texts are dictionary encoded. The variable as it came from the metadata API is the dictionary,
+ * with a hash index from value to ordinal, and the variable itself is an array of ordinals into it. Filtered variables
+ * and the slices {@link no.ks.fiks.ssbAPI.builder.MetadataBuilder} builds for each query share the dictionary of the
+ * variable they came from and only hold their own ordinals, so a lookup with {@link #indexOf(String)} is constant time
+ * and a slice doesn't copy any strings.
  */
 
 public class SsbMetadataVariables {
     private final String code;
     private final String text;
-    private List<String> values;
-    private List<String> valueTexts;
+    private final Dictionary dictionary;
+    private int[] ordinals;
+    private volatile int[] positions;
     private int largestValue;
     private int largestValueText;
 
@@ -24,15 +38,40 @@ public class SsbMetadataVariables {
      * @param text       This is the metadata variable text.
      * @param values     This is a list of the values for the current metadata variable.
      * @param valueTexts This is a list of value texts for the current metadata variable, it's in the same order as
-     *                   {@link #values}
+     *                   {@link #getValues()}
      */
     public SsbMetadataVariables(String code, String text, List<String> values, List<String> valueTexts) {
+        if (values.size() != valueTexts.size())
+            throw new IllegalArgumentException("Variable " + code + " has " + values.size() + " values and "
+                    + valueTexts.size() + " value texts");
         this.code = code;
         this.text = text;
-        this.values = values;
-        this.valueTexts = valueTexts;
-        this.largestValue = findLargestValueString(values);
-        this.largestValueText = findLargestValueString(valueTexts);
+        this.dictionary = new Dictionary(values, valueTexts);
+        this.ordinals = new int[values.size()];
+        for (int i = 0; i < ordinals.length; i++) {
+            ordinals[i] = i;
+        }
+        this.largestValue = findLargestValueString(new OrdinalList(dictionary.values));
+        this.largestValueText = findLargestValueString(new OrdinalList(dictionary.valueTexts));
+    }
+
+    /**
+     * Constructor that makes a copy of a variable. The copy shares the dictionary, but can be filtered without changing
+     * the original.
+     *
+     * @param source This is the variable to copy.
+     */
+    public SsbMetadataVariables(SsbMetadataVariables source) {
+        this(source, source.ordinals.clone());
+    }
+
+    private SsbMetadataVariables(SsbMetadataVariables source, int[] ordinals) {
+        this.code = source.code;
+        this.text = source.text;
+        this.dictionary = source.dictionary;
+        this.ordinals = ordinals;
+        this.largestValue = findLargestValueString(new OrdinalList(dictionary.values));
+        this.largestValueText = findLargestValueString(new OrdinalList(dictionary.valueTexts));
     }
 
     /**
@@ -58,37 +97,131 @@ public class SsbMetadataVariables {
     /**
      * <h1>getValues</h1>
      *
-     * @return Returns the list of values.
+     * @return Returns a new, mutable list of the values. Changing it doesn't change the variable, use
+     * {@link #retain(BitSet)} or {@link #filterValuesAndValueTexts(String, List)} for that, and use
+     * {@link #getValue(int)}, {@link #size()} and {@link #indexOf(String)} to read the values without a copy.
      */
     public List<String> getValues() {
-        return values;
+        return new ArrayList<>(new OrdinalList(dictionary.values));
     }
 
     /**
      * <h1>getValueTexts</h1>
      *
-     * @return Returns the list of value texts.
+     * @return Returns a new, mutable list of the value texts, in the same order as {@link #getValues()}. Use
+     * {@link #getValueText(int)} to read them without a copy.
      */
     public List<String> getValueTexts() {
-        return valueTexts;
+        return new ArrayList<>(new OrdinalList(dictionary.valueTexts));
     }
 
     /**
-     * <h1>getLargestValue</h1>
+     * <h1>size</h1>
      *
-     * @return Returns the size of the longest string in {@link #values}.
+     * @return Returns the number of values.
      */
-    public int getLargestValue() {
-        return largestValue;
+    public int size() {
+        return ordinals.length;
     }
 
     /**
-     * <h1>getLargestValueText</h1>
+     * <h1>getValue</h1>
      *
-     * @return Returns the size of the longest string in {@link #valueTexts}.
+     * @param position This is the position of the value in this variable.
+     * @return Returns the value.
      */
-    public int getLargestValueText() {
-        return largestValueText;
+    public String getValue(int position) {
+        return dictionary.values[ordinals[position]];
+    }
+
+    /**
+     * <h1>getValueText</h1>
+     *
+     * @param position This is the position of the value in this variable.
+     * @return Returns the value text of the value.
+     */
+    public String getValueText(int position) {
+        return dictionary.valueTexts[ordinals[position]];
+    }
+
+    /**
+     * <h1>indexOf</h1>
+     * <p>
+     * Finds a value with the hash index of the dictionary, in constant time.
+     *
+     * @param value This is the value to find.
+     * @return Returns the position of the value in this variable, or -1 if it isn't there.
+     */
+    public int indexOf(String value) {
+        Integer ordinal = dictionary.index.get(value);
+        if (ordinal == null)
+            return -1;
+        return positions()[ordinal];
+    }
+
+    /**
+     * <h1>slice</h1>
+     * <p>
+     * Creates a variable with some of the values of this one, in the same order. The slice shares the dictionary, so
+     * no strings are copied.
+     *
+     * @param selected This is the positions of the values to keep.
+     * @return Returns the slice.
+     */
+    public SsbMetadataVariables slice(BitSet selected) {
+        return new SsbMetadataVariables(this, select(selected));
+    }
+
+    /**
+     * <h1>slice</h1>
+     *
+     * @param from This is the position of the first value to keep.
+     * @param to   This is the position after the last value to keep.
+     * @return Returns a slice with the values from and including from, to but not including to.
+     */
+    public SsbMetadataVariables slice(int from, int to) {
+        return new SsbMetadataVariables(this, Arrays.copyOfRange(ordinals, from, to));
+    }
+
+    /**
+     * <h1>retain</h1>
+     * <p>
+     * Keeps only the selected values, and their value texts, in the same order.
+     *
+     * @param selected This is the positions of the values to keep.
+     */
+    public void retain(BitSet selected) {
+        setOrdinals(select(selected));
+    }
+
+    /**
+     * <h1>selectsAll</h1>
+     *
+     * @return Returns true if this variable has every value from the metadata API, in the same order.
+     */
+    public boolean selectsAll() {
+        if (ordinals.length != dictionary.values.length)
+            return false;
+        for (int i = 0; i < ordinals.length; i++) {
+            if (ordinals[i] != i)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * <h1>selectsLast</h1>
+     *
+     * @return Returns true if this variable has the last values from the metadata API, in the same order, like the
+     * latest periods of 'Tid'.
+     */
+    public boolean selectsLast() {
+        int first = dictionary.values.length - ordinals.length;
+        for (int i = 0; i < ordinals.length; i++) {
+            if (ordinals[i] != first + i)
+                return false;
+        }
+        return ordinals.length > 0;
     }
 
     /**
@@ -102,39 +235,154 @@ public class SsbMetadataVariables {
         return stringList.stream().mapToInt(String::length).max().orElse(-1);
     }
 
+    /**
+     * <h1>getLargestValue</h1>
+     *
+     * @return Returns the size of the longest string in {@link #getValues()}.
+     */
+    public int getLargestValue() {
+        return largestValue;
+    }
+
+    /**
+     * <h1>getLargestValueText</h1>
+     *
+     * @return Returns the size of the longest string in {@link #getValueTexts()}.
+     */
+    public int getLargestValueText() {
+        return largestValueText;
+    }
 
     /**
      * <h1>filterValuesAndValueTexts</h1>
      * <p>
-     * This method filters out the values and value texts provided by the filterList parameter.
-     * Since it filters based on the values and not value texts, we use a stream to find the positions of the elements
-     * being filtered. Then use that list to find the matching value texts and create a filter list for value texts.
+     * This method filters out the values and value texts provided by the filterList parameter. The filter list can
+     * have values, prefixes, wildcards and ranges, see {@link ValueFilter}.
+     * The values are found with the hash index and collected in a {@link BitSet}, so the filter runs in linear time,
+     * and the value texts follow their values by position, so a value text that several values share is only removed
+     * with the values that are removed.
      * The method checks if you want to remove all but the filter or remove the filter elements.
      *
-     * @param filterList   This is the list of values that will be filtered on.
+     * @param code       This is the filter key, which starts with '!' if the values should be removed.
+     * @param filterList This is the list of values that will be filtered on.
+     * @throws IllegalArgumentException Throws IllegalArgumentException if a value to keep isn't in the variable.
      */
     public void filterValuesAndValueTexts(String code, List<String> filterList) {
-        List<Integer> valueTextPositions;
-        List<String> valueTextFilter;
+        if (filterList.get(0).equalsIgnoreCase("NONE"))
+            setOrdinals(new int[0]);
+        else
+            filter(ValueFilter.compile(filterList), code.contains("!"));
+    }
 
-        if (filterList.get(0).equalsIgnoreCase("NONE")) {
-            values.clear();
-            valueTexts.clear();
+    /**
+     * <h1>filter</h1>
+     *
+     * @param filter This is the compiled filter.
+     * @param remove This is true if the matched values should be removed, and false if only they should be kept, in
+     *               the order of the filter.
+     * @throws IllegalArgumentException Throws IllegalArgumentException if a value to keep isn't in the variable.
+     */
+    public void filter(ValueFilter filter, boolean remove) {
+        if (remove) {
+            BitSet selected = filter.matches(this);
+            selected.flip(0, ordinals.length);
+            retain(selected);
         } else {
+            int[] positions = filter.select(this);
+            int[] filtered = new int[positions.length];
+            for (int i = 0; i < positions.length; i++) {
+                filtered[i] = ordinals[positions[i]];
+            }
+            setOrdinals(filtered);
+        }
+    }
+
+    private int[] select(BitSet selected) {
+        int[] selectedOrdinals = new int[selected.cardinality()];
+        int i = 0;
+        for (int position = selected.nextSetBit(0); position >= 0 && position < ordinals.length; position = selected.nextSetBit(position + 1)) {
+            selectedOrdinals[i++] = ordinals[position];
+        }
+        return i == selectedOrdinals.length ? selectedOrdinals : Arrays.copyOf(selectedOrdinals, i);
+    }
 
-            valueTextPositions = filterList.stream().map(s -> values.indexOf(s)).collect(Collectors.toList());
-            valueTextFilter = valueTextPositions.stream().mapToInt(pos -> pos).mapToObj(i -> valueTexts.get(i)).collect(Collectors.toList());
+    private void setOrdinals(int[] ordinals) {
+        this.ordinals = ordinals;
+        this.positions = null;
+        this.largestValue = findLargestValueString(new OrdinalList(dictionary.values));
+        this.largestValueText = findLargestValueString(new OrdinalList(dictionary.valueTexts));
+    }
 
+    /**
+     * <h1>positions</h1>
+     *
+     * <p>
+     * The array is built in a local variable and only published through the volatile field when it is filled, since the
+     * table dimensions are looked up from every query thread at once by
+     * {@link no.ks.fiks.ssbAPI.tableApi.TableCubeMerger#sinkFor(List)}. Two threads may both build it, with the same
+     * result.
+     *
+     * @return Returns the position in this variable of each dictionary ordinal, or -1, built the first time it's needed.
+     */
+    private int[] positions() {
+        int[] result = positions;
+        if (result == null) {
+            result = new int[dictionary.values.length];
+            Arrays.fill(result, -1);
+            for (int i = ordinals.length - 1; i >= 0; i--) {
+                result[ordinals[i]] = i;
+            }
+            positions = result;
+        }
+        return result;
+    }
+
+    /**
+     * <h1>Dictionary</h1>
+     * <p>
+     * The values and value texts of a variable as it came from the metadata API, with a hash index from value to
+     * ordinal. It is never changed after it is built, so it is shared by every copy and slice of the variable. The
+     * strings are interned in the {@link StringPool}, so tables with the same dimension share them.
+     */
+    private static class Dictionary {
+        private final String[] values;
+        private final String[] valueTexts;
+        private final Map<String, Integer> index;
 
-            if (code.contains("!")) {
-                values.removeAll(filterList);
-                valueTexts.removeAll(valueTextFilter);
-            } else {
-                values = filterList;
-                valueTexts = valueTextFilter;
+        private Dictionary(List<String> values, List<String> valueTexts) {
+            this.values = new String[values.size()];
+            this.valueTexts = new String[values.size()];
+            this.index = new HashMap<>(values.size() * 4 / 3 + 1);
+            for (int i = 0; i < this.values.length; i++) {
+                String value = StringPool.intern(values.get(i));
+                this.values[i] = value;
+                this.valueTexts[i] = StringPool.intern(valueTexts.get(i));
+                index.putIfAbsent(value, i);
             }
-            largestValue = findLargestValueString(values);
-            largestValueText = findLargestValueString(valueTexts);
+        }
+    }
+
+    /**
+     * <h1>OrdinalList</h1>
+     * <p>
+     * Read-only list view of the values or value texts of this variable, which the getters copy.
+     */
+    private class OrdinalList extends AbstractList<String> {
+        private final String[] strings;
+        private final int[] listOrdinals = ordinals;
+
+        private OrdinalList(String[] strings) {
+            this.strings = strings;
+        }
+
+        @Override
+        public String get(int index) {
+            return strings[listOrdinals[index]];
+        }
+
+        @Override
+        public int size() {
+            return listOrdinals.length;
         }
     }
 }
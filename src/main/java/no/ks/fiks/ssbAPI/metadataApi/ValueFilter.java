@@ -0,0 +1,195 @@
+package no.ks.fiks.ssbAPI.metadataApi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * <h1>ValueFilter</h1>
+ * <p>
+ * ValueFilter is a compiled metadata filter for one variable. Each entry of the filter list is one of:
+ * <ul>
+ *     <li>a value, like {@code 3001}, which is found with the hash index of the variable</li>
+ *     <li>a prefix, like {@code 30*}, which matches every value starting with {@code 30}, so {@code *} matches all</li>
+ *     <li>a wildcard, like {@code 20??K*}, where {@code ?} is one character and {@code *} any number of characters</li>
+ *     <li>a range, like {@code 2015..2020}, which matches every value between the two, both included. Values of only
+ *     digits are compared as numbers, other values as text, so {@code 2020K1..2021K4} works for quarters</li>
+ * </ul>
+ * The values matched are found with one pass over the variable per pattern, and collected in a {@link BitSet}, so a
+ * filter runs in linear time no matter how many values it has.
+ */
+
+public class ValueFilter {
+
+    private final List<Entry> entries;
+    private final boolean hasPatterns;
+
+    private ValueFilter(List<Entry> entries) {
+        this.entries = entries;
+        this.hasPatterns = entries.stream().anyMatch(entry -> entry.kind != Kind.VALUE);
+    }
+
+    /**
+     * <h1>compile</h1>
+     *
+     * @param filterList This is the list of values and patterns to filter on.
+     * @return Returns the compiled filter.
+     */
+    public static ValueFilter compile(List<String> filterList) {
+        List<Entry> entries = new ArrayList<>(filterList.size());
+        for (String filter : filterList) {
+            entries.add(Entry.parse(filter));
+        }
+        return new ValueFilter(entries);
+    }
+
+    /**
+     * <h1>select</h1>
+     * <p>
+     * Finds the values the filter matches. They are in the order of the filter list, and each pattern adds its
+     * matches in the order of the variable. A value that is matched more than once is only included the first time.
+     *
+     * @param variable This is the variable to filter.
+     * @return Returns the positions of the matched values in the variable.
+     * @throws IllegalArgumentException Throws IllegalArgumentException if a value in the filter isn't in the variable.
+     */
+    public int[] select(SsbMetadataVariables variable) {
+        BitSet seen = new BitSet(variable.size());
+        int[] selected = new int[hasPatterns ? variable.size() : entries.size()];
+        int count = 0;
+        for (Entry entry : entries) {
+            if (entry.kind == Kind.VALUE) {
+                int position = variable.indexOf(entry.value);
+                if (position < 0)
+                    throw new IllegalArgumentException("Value " + entry.value + " is not in variable " + variable.getCode());
+                if (!seen.get(position)) {
+                    seen.set(position);
+                    selected[count++] = position;
+                }
+            } else {
+                for (int position = 0; position < variable.size(); position++) {
+                    if (!seen.get(position) && entry.matches(variable.getValue(position))) {
+                        seen.set(position);
+                        selected[count++] = position;
+                    }
+                }
+            }
+        }
+        return count == selected.length ? selected : Arrays.copyOf(selected, count);
+    }
+
+    /**
+     * <h1>matches</h1>
+     * <p>
+     * Finds the values the filter matches, in the order of the variable. Values in the filter that aren't in the
+     * variable are ignored.
+     *
+     * @param variable This is the variable to filter.
+     * @return Returns the positions of the matched values.
+     */
+    public BitSet matches(SsbMetadataVariables variable) {
+        BitSet matched = new BitSet(variable.size());
+        for (Entry entry : entries) {
+            if (entry.kind == Kind.VALUE) {
+                int position = variable.indexOf(entry.value);
+                if (position >= 0)
+                    matched.set(position);
+            } else {
+                for (int position = 0; position < variable.size(); position++) {
+                    if (entry.matches(variable.getValue(position)))
+                        matched.set(position);
+                }
+            }
+        }
+        return matched;
+    }
+
+    private enum Kind {VALUE, PREFIX, WILDCARD, RANGE}
+
+    private static class Entry {
+        private final Kind kind;
+        private final String value;
+        private final String to;
+        private final Pattern pattern;
+
+        private Entry(Kind kind, String value, String to, Pattern pattern) {
+            this.kind = kind;
+            this.value = value;
+            this.to = to;
+            this.pattern = pattern;
+        }
+
+        private static Entry parse(String filter) {
+            int range = filter.indexOf("..");
+            if (range > 0 && range < filter.length() - 2)
+                return new Entry(Kind.RANGE, filter.substring(0, range), filter.substring(range + 2), null);
+            int star = filter.indexOf('*');
+            if (star == filter.length() - 1 && filter.indexOf('?') < 0)
+                return new Entry(Kind.PREFIX, filter.substring(0, star), null, null);
+            if (star >= 0 || filter.indexOf('?') >= 0)
+                return new Entry(Kind.WILDCARD, filter, null, wildcardPattern(filter));
+            return new Entry(Kind.VALUE, filter, null, null);
+        }
+
+        private static Pattern wildcardPattern(String filter) {
+            StringBuilder regex = new StringBuilder();
+            StringBuilder literal = new StringBuilder();
+            for (char c : filter.toCharArray()) {
+                if (c == '*' || c == '?') {
+                    if (literal.length() > 0) {
+                        regex.append(Pattern.quote(literal.toString()));
+                        literal.setLength(0);
+                    }
+                    regex.append(c == '*' ? ".*" : ".");
+                } else {
+                    literal.append(c);
+                }
+            }
+            if (literal.length() > 0)
+                regex.append(Pattern.quote(literal.toString()));
+            return Pattern.compile(regex.toString(), Pattern.DOTALL);
+        }
+
+        private boolean matches(String candidate) {
+            switch (kind) {
+                case PREFIX:
+                    return candidate.startsWith(value);
+                case WILDCARD:
+                    return pattern.matcher(candidate).matches();
+                case RANGE:
+                    return compare(value, candidate) <= 0 && compare(candidate, to) <= 0;
+                default:
+                    return candidate.equals(value);
+            }
+        }
+
+        private static int compare(String a, String b) {
+            if (isDigits(a) && isDigits(b)) {
+                a = stripLeadingZeros(a);
+                b = stripLeadingZeros(b);
+                if (a.length() != b.length())
+                    return Integer.compare(a.length(), b.length());
+            }
+            return a.compareTo(b);
+        }
+
+        private static String stripLeadingZeros(String digits) {
+            int start = 0;
+            while (start < digits.length() - 1 && digits.charAt(start) == '0')
+                start++;
+            return digits.substring(start);
+        }
+
+        private static boolean isDigits(String s) {
+            if (s.isEmpty())
+                return false;
+            for (int i = 0; i < s.length(); i++) {
+                if (!Character.isDigit(s.charAt(i)))
+                    return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package no.ks.fiks.ssbAPI.tableApi;
+
+import no.ks.fiks.ssbAPI.metadataApi.SsbMetadataVariables;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <h1>CategoryLookup</h1>
+ * <p>
+ * Finds the dimensions and values of the metadata from the labels in the CSV and px formats. Those formats label
+ * dimensions and values with a code, a text, or a code and text like '3001 Halden', so each is tried in turn. The
+ * text index of a dimension is built the first time a text is looked up.
+ */
+final class CategoryLookup {
+
+    private final List<SsbMetadataVariables> dimensions;
+    private final Map<Integer, Map<String, Integer>> textIndexes = new HashMap<>();
+
+    CategoryLookup(List<SsbMetadataVariables> dimensions) {
+        this.dimensions = dimensions;
+    }
+
+    /**
+     * <h1>dimension</h1>
+     *
+     * @param label This is the code or text of a dimension.
+     * @return Returns the position of the dimension in the metadata variables, or -1 if there is none.
+     */
+    int dimension(String label) {
+        String trimmed = label.trim();
+        for (int i = 0; i < dimensions.size(); i++) {
+            if (dimensions.get(i).getCode().equalsIgnoreCase(trimmed))
+                return i;
+        }
+        for (int i = 0; i < dimensions.size(); i++) {
+            if (dimensions.get(i).getText().equalsIgnoreCase(trimmed))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * <h1>category</h1>
+     *
+     * @param dimension This is the position of the dimension in the metadata variables.
+     * @param label     This is the code, text or code and text of a value.
+     * @return Returns the position of the value in the dimension, or -1 if there is none.
+     */
+    int category(int dimension, String label) {
+        SsbMetadataVariables variable = dimensions.get(dimension);
+        String trimmed = label.trim();
+        int position = variable.indexOf(trimmed);
+        if (position >= 0)
+            return position;
+        Integer byText = textIndex(dimension).get(trimmed.toLowerCase(Locale.ROOT));
+        if (byText != null)
+            return byText;
+        int space = trimmed.indexOf(' ');
+        return space > 0 ? variable.indexOf(trimmed.substring(0, space)) : -1;
+    }
+
+    private Map<String, Integer> textIndex(int dimension) {
+        return textIndexes.computeIfAbsent(dimension, d -> {
+            SsbMetadataVariables variable = dimensions.get(d);
+            Map<String, Integer> index = new HashMap<>(variable.size() * 4 / 3 + 1);
+            for (int i = 0; i < variable.size(); i++) {
+                index.putIfAbsent(variable.getValueText(i).toLowerCase(Locale.ROOT), i);
+            }
+            return index;
+        });
+    }
+
+    /**
+     * <h1>strides</h1>
+     *
+     * @return Returns the row-major stride of each dimension.
+     * @throws IllegalArgumentException Throws IllegalArgumentException if the chunk has too many cells.
+     */
+    int[] strides() {
+        int[] strides = new int[dimensions.size()];
+        long cells = 1;
+        for (int i = dimensions.size() - 1; i >= 0; i--) {
+            strides[i] = (int) Math.min(cells, Integer.MAX_VALUE);
+            cells *= dimensions.get(i).size();
+        }
+        if (cells > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Table has too many cells to decode: " + cells);
+        return strides;
+    }
+
+    /**
+     * <h1>parseValue</h1>
+     * <p>
+     * Parses a value of the CSV or px formats. Status symbols like '..', '.', ':' and '-' are missing values.
+     *
+     * @param text         This is the value as text.
+     * @param decimalComma This is true if ',' is the decimal separator.
+     * @return Returns the value, or NaN if the cell has no value.
+     */
+    static double parseValue(String text, boolean decimalComma) {
+        String value = text.trim();
+        if (value.isEmpty())
+            return Double.NaN;
+        char first = value.charAt(0);
+        if (first != '-' && first != '+' && first != '.' && !Character.isDigit(first))
+            return Double.NaN;
+        if (value.indexOf(' ') >= 0 || value.indexOf('\u00a0') >= 0)
+            value = value.replace(" ", "").replace("\u00a0", "");
+        if (decimalComma)
+            value = value.replace(',', '.');
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException nfe) {
+            return Double.NaN;
+        }
+    }
+}
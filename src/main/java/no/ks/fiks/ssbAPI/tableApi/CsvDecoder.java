@@ -0,0 +1,277 @@
+package no.ks.fiks.ssbAPI.tableApi;
+
+import no.ks.fiks.ssbAPI.metadataApi.SsbMetadataVariables;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * <h1>CsvDecoder</h1>
+ * <p>
+ * CsvDecoder reads the csv, csv2 and csv3 query results one row at a time and writes every cell to a
+ * {@link TableCellSink}. The PxWeb CSV formats have one row for each combination of the stub dimensions and one column
+ * for each combination of the heading dimensions, so the decoder finds the layout from the header row:
+ * <ul>
+ *     <li>the first columns whose header is the code or text of a dimension are the stub, and their cells are the
+ *     code, text or code and text of a value</li>
+ *     <li>the other dimensions are the heading, and each remaining column is labelled with the code, text or code and
+ *     text of one value of each heading dimension, separated by spaces, which is matched like the stub cells, so the
+ *     server can order the heading dimensions and values any way it likes</li>
+ *     <li>a single value column, like the flat layout, only needs a label when the heading has values</li>
+ * </ul>
+ * A column label can start with other words, like the text of the contents, before the heading values.
+ * The separator is the first ',', ';' or tab in the header. With ';' or tab as separator ',' is read as the decimal
+ * separator. Cells with a status symbol instead of a number, like '..', are missing and get the symbol as status.
+ */
+
+public class CsvDecoder implements TableDecoder {
+
+    private final List<SsbMetadataVariables> dimensions;
+    private final CategoryLookup lookup;
+    private final int[] strides;
+
+    /**
+     * Sets up a decoder for results of a query built from the metadata variables. Variables without values aren't in
+     * the query, so they aren't dimensions of the result either.
+     *
+     * @param dimensions This is the metadata variables of the chunk, in query order.
+     */
+    public CsvDecoder(List<SsbMetadataVariables> dimensions) {
+        this.dimensions = SsbTableCube.queriedDimensions(dimensions);
+        this.lookup = new CategoryLookup(this.dimensions);
+        this.strides = lookup.strides();
+    }
+
+    /**
+     * <h1>decode</h1>
+     *
+     * @param body This is the CSV response body.
+     * @param sink This is where the cells are written.
+     * @throws IOException Throws IOException if the body can't be read or doesn't match the dimensions.
+     */
+    @Override
+    public void decode(InputStream body, TableCellSink sink) throws IOException {
+        try (RecordReader reader = new RecordReader(new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8)))) {
+            List<String> header = reader.next();
+            if (header == null)
+                throw new IOException("Empty CSV response");
+            int[] stub = stubDimensions(header);
+            int[] columnOffsets = columnOffsets(stub, header.subList(stub.length, header.size()));
+            boolean decimalComma = reader.delimiter != ',';
+            List<String> row;
+            int line = 1;
+            while ((row = reader.next()) != null) {
+                line++;
+                if (row.size() == 1 && row.get(0).isEmpty())
+                    continue;
+                if (row.size() != header.size())
+                    throw new IOException("Row " + line + " has " + row.size() + " columns, the header has " + header.size());
+                int rowIndex = 0;
+                for (int i = 0; i < stub.length; i++) {
+                    int position = lookup.category(stub[i], row.get(i));
+                    if (position < 0)
+                        throw new IOException("Value " + row.get(i) + " of " + dimensions.get(stub[i]).getCode() + " is not in the query");
+                    rowIndex += position * strides[stub[i]];
+                }
+                for (int column = 0; column < columnOffsets.length; column++) {
+                    String cell = row.get(stub.length + column);
+                    double value = CategoryLookup.parseValue(cell, decimalComma);
+                    if (Double.isNaN(value)) {
+                        sink.missing(rowIndex + columnOffsets[column]);
+                        if (!cell.isBlank())
+                            sink.status(rowIndex + columnOffsets[column], cell.trim());
+                    } else {
+                        sink.value(rowIndex + columnOffsets[column], value);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * <h1>stubDimensions</h1>
+     *
+     * @param header This is the header row.
+     * @return Returns the position in the metadata variables of the dimension of each stub column.
+     */
+    private int[] stubDimensions(List<String> header) {
+        int[] stub = new int[Math.min(header.size(), dimensions.size())];
+        boolean[] used = new boolean[dimensions.size()];
+        int count = 0;
+        while (count < stub.length && count < header.size() - 1) {
+            int dimension = lookup.dimension(header.get(count));
+            if (dimension < 0 || used[dimension])
+                break;
+            used[dimension] = true;
+            stub[count++] = dimension;
+        }
+        int[] result = new int[count];
+        System.arraycopy(stub, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * <h1>columnOffsets</h1>
+     *
+     * @param stub   This is the dimensions of the stub columns.
+     * @param labels This is the header of each value column.
+     * @return Returns the index offset of each value column, from the values of the heading dimensions in its label.
+     * @throws IOException Throws IOException if the value columns don't match the values of the heading dimensions.
+     */
+    private int[] columnOffsets(int[] stub, List<String> labels) throws IOException {
+        boolean[] inStub = new boolean[dimensions.size()];
+        for (int dimension : stub) {
+            inStub[dimension] = true;
+        }
+        List<Integer> heading = new ArrayList<>();
+        long expected = 1;
+        for (int i = 0; i < dimensions.size(); i++) {
+            if (!inStub[i]) {
+                heading.add(i);
+                expected *= dimensions.get(i).size();
+            }
+        }
+        if (expected != labels.size())
+            throw new IOException("Response has " + labels.size() + " value columns, the query has " + expected);
+        int[] offsets = new int[labels.size()];
+        if (heading.isEmpty())
+            return offsets;
+        BitSet used = new BitSet();
+        for (int column = 0; column < offsets.length; column++) {
+            String[] words = labels.get(column).trim().split("\\s+");
+            int offset = -1;
+            for (int from = 0; from < words.length && offset < 0; from++) {
+                offset = matchHeading(words, from, heading, 0);
+            }
+            if (offset < 0 && labels.size() == 1 && heading.stream().allMatch(h -> dimensions.get(h).size() == 1))
+                offset = 0;
+            if (offset < 0)
+                throw new IOException("Value column " + labels.get(column) + " doesn't match the values of the heading");
+            if (used.get(offset))
+                throw new IOException("Value column " + labels.get(column) + " is in the response twice");
+            used.set(offset);
+            offsets[column] = offset;
+        }
+        return offsets;
+    }
+
+    /**
+     * <h1>matchHeading</h1>
+     * <p>
+     * This method finds the value of each heading dimension in the words of a column label, trying every number of
+     * words for a value, since texts can have spaces.
+     *
+     * @param words   This is the words of the label.
+     * @param from    This is the first word not matched yet.
+     * @param heading This is the heading dimensions.
+     * @param h       This is the heading dimension to match next.
+     * @return Returns the index offset of the values, or -1 if the words don't match.
+     */
+    private int matchHeading(String[] words, int from, List<Integer> heading, int h) {
+        int dimension = heading.get(h);
+        StringBuilder label = new StringBuilder();
+        for (int to = from; to < words.length; to++) {
+            if (to > from)
+                label.append(' ');
+            label.append(words[to]);
+            boolean last = h == heading.size() - 1;
+            if (last != (to == words.length - 1))
+                continue;
+            int position = lookup.category(dimension, label.toString());
+            if (position < 0)
+                continue;
+            int rest = last ? 0 : matchHeading(words, to + 1, heading, h + 1);
+            if (rest >= 0)
+                return position * strides[dimension] + rest;
+        }
+        return -1;
+    }
+
+    /**
+     * <h1>RecordReader</h1>
+     * <p>
+     * Reads one CSV record at a time, with quoted fields that can hold separators, quotes written as "" and line
+     * breaks. The separator is found from the header.
+     */
+    private static class RecordReader implements AutoCloseable {
+        private final Reader reader;
+        private char delimiter;
+        private int pushedBack = -2;
+
+        private RecordReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        private int read() throws IOException {
+            if (pushedBack != -2) {
+                int c = pushedBack;
+                pushedBack = -2;
+                return c;
+            }
+            return reader.read();
+        }
+
+        private List<String> next() throws IOException {
+            int c = read();
+            if (c == '\uFEFF')
+                c = read();
+            if (c == -1)
+                return null;
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c == -1)
+                        throw new IOException("Unterminated quoted CSV field");
+                    if (c == '"') {
+                        int following = read();
+                        if (following == '"') {
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                            c = following;
+                            continue;
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == -1 || c == '\n' || c == '\r') {
+                    if (c == '\r') {
+                        int following = read();
+                        if (following != '\n')
+                            pushedBack = following;
+                    }
+                    fields.add(field.toString());
+                    return fields;
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (isDelimiter((char) c)) {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append((char) c);
+                }
+                c = read();
+            }
+        }
+
+        private boolean isDelimiter(char c) {
+            if (delimiter == 0 && (c == ',' || c == ';' || c == '\t'))
+                delimiter = c;
+            return c == delimiter;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package no.ks.fiks.ssbAPI.tableApi;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import no.ks.fiks.ssbAPI.metadataApi.SsbMetadataVariables;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <h1>JsonStat2Decoder</h1>
+ * <p>
+ * JsonStat2Decoder reads a json-stat2 query result with Jackson's streaming {@link JsonParser} and writes every cell
+ * straight to a {@link TableCellSink}, in a single pass and without building a tree of the response. The layout of
+ * the result is taken from the metadata variables the query was built from, so the only thing read from the
+ * response besides the values is a check that the dimensions match.
+ * <p>
+ * If the server lists the values of a dimension in another order than the query, the dimension's category index is
+ * used to put the cells in query order. PxWeb sends the dimensions before the values, which this relies on.
+ * <p>
+ * The decoder also reads json-stat 1.0 results, where the dataset is wrapped in a "dataset" object and the "id" and
+ * "size" arrays are inside "dimension".
+ */
+
+public class JsonStat2Decoder implements TableDecoder {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final List<SsbMetadataVariables> dimensions;
+    private final int[] sizes;
+    private final int[] strides;
+    private final int cellCount;
+    private final int[][] serverToOrdinal;
+    private boolean remapped;
+    private boolean valuesWritten;
+
+    /**
+     * Sets up a decoder for results of a query built from the metadata variables. Variables without values aren't in
+     * the query, so they aren't dimensions of the result either.
+     *
+     * @param dimensions This is the metadata variables of the chunk, in query order.
+     */
+    public JsonStat2Decoder(List<SsbMetadataVariables> dimensions) {
+        dimensions = SsbTableCube.queriedDimensions(dimensions);
+        this.dimensions = dimensions;
+        this.sizes = new int[dimensions.size()];
+        this.strides = new int[dimensions.size()];
+        long cells = 1;
+        for (int i = dimensions.size() - 1; i >= 0; i--) {
+            sizes[i] = dimensions.get(i).size();
+            strides[i] = (int) Math.min(cells, Integer.MAX_VALUE);
+            cells *= sizes[i];
+        }
+        if (cells > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Table has too many cells to decode: " + cells);
+        this.cellCount = (int) cells;
+        this.serverToOrdinal = new int[dimensions.size()][];
+    }
+
+    /**
+     * <h1>decode</h1>
+     * <p>
+     * Decodes a query result into a new cube.
+     *
+     * @param body       This is the json-stat2 response body.
+     * @param dimensions This is the metadata variables of the chunk, in query order.
+     * @return Returns the decoded cube.
+     * @throws IOException Throws IOException if the body can't be read or doesn't match the dimensions.
+     */
+    public static SsbTableCube decode(InputStream body, List<SsbMetadataVariables> dimensions) throws IOException {
+        SsbTableCube cube = new SsbTableCube(dimensions);
+        new JsonStat2Decoder(dimensions).decode(body, cube);
+        return cube;
+    }
+
+    /**
+     * <h1>decode</h1>
+     * <p>
+     * Decodes a query result and writes every cell to the sink. A decoder object can only decode one result.
+     *
+     * @param body This is the json-stat2 response body.
+     * @param sink This is where the cells are written.
+     * @throws IOException Throws IOException if the body can't be read or doesn't match the dimensions.
+     */
+    @Override
+    public void decode(InputStream body, TableCellSink sink) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw new IOException("Expected a json-stat2 object");
+            readDataset(parser, sink);
+        }
+    }
+
+    /**
+     * <h1>readDataset</h1>
+     *
+     * @param parser This is the parser, positioned at the start of the dataset object.
+     * @param sink   This is where the cells are written.
+     * @throws IOException Throws IOException if the dataset can't be read or doesn't match the dimensions.
+     */
+    private void readDataset(JsonParser parser, TableCellSink sink) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "dataset":
+                    if (parser.currentToken() != JsonToken.START_OBJECT)
+                        throw new IOException("Expected a json-stat dataset object");
+                    readDataset(parser, sink);
+                    break;
+                case "id":
+                    checkIds(parser);
+                    break;
+                case "size":
+                    checkSizes(parser);
+                    break;
+                case "dimension":
+                    readDimensions(parser);
+                    break;
+                case "value":
+                    readValues(parser, sink);
+                    break;
+                case "status":
+                    readStatus(parser, sink);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * <h1>checkIds</h1>
+     *
+     * @param parser This is the parser, positioned at the start of the "id" array.
+     * @throws IOException Throws IOException if the dimension codes aren't the codes of the metadata variables.
+     */
+    private void checkIds(JsonParser parser) throws IOException {
+        List<String> ids = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            ids.add(parser.getText());
+        }
+        List<String> expected = new ArrayList<>();
+        for (SsbMetadataVariables dimension : dimensions) {
+            expected.add(dimension.getCode());
+        }
+        if (!ids.equals(expected))
+            throw new IOException("Response dimensions " + ids + " don't match the query dimensions " + expected);
+    }
+
+    /**
+     * <h1>checkSizes</h1>
+     *
+     * @param parser This is the parser, positioned at the start of the "size" array.
+     * @throws IOException Throws IOException if the sizes aren't the number of values in the metadata variables.
+     */
+    private void checkSizes(JsonParser parser) throws IOException {
+        int i = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (i >= sizes.length || parser.getIntValue() != sizes[i])
+                throw new IOException("Response size of dimension " + i + " doesn't match the query");
+            i++;
+        }
+        if (i != sizes.length)
+            throw new IOException("Response has " + i + " dimensions, the query has " + sizes.length);
+    }
+
+    /**
+     * <h1>readDimensions</h1>
+     * <p>
+     * This method reads the category index of each dimension, to find the position of each value in the metadata.
+     * Everything else in the dimensions, like the labels, is skipped. In json-stat 1.0 the "id" and "size" arrays
+     * are read here too.
+     *
+     * @param parser This is the parser, positioned at the start of the "dimension" object.
+     * @throws IOException Throws IOException if a category isn't in the metadata.
+     */
+    private void readDimensions(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String code = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY && code.equals("id")) {
+                checkIds(parser);
+                continue;
+            }
+            if (token == JsonToken.START_ARRAY && code.equals("size")) {
+                checkSizes(parser);
+                continue;
+            }
+            if (token != JsonToken.START_OBJECT || code.equals("role")) {
+                parser.skipChildren();
+                continue;
+            }
+            int dimension = dimensionIndex(code);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if (field.equals("category") && dimension >= 0)
+                    readCategory(parser, dimension);
+                else
+                    parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * <h1>readCategory</h1>
+     *
+     * @param parser    This is the parser, positioned at the start of a "category" object.
+     * @param dimension This is the position of the dimension in the metadata variables.
+     * @throws IOException Throws IOException if a category isn't in the metadata.
+     */
+    private void readCategory(JsonParser parser, int dimension) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (!field.equals("index")) {
+                parser.skipChildren();
+                continue;
+            }
+            int[] mapping = new int[sizes[dimension]];
+            boolean identity = true;
+            if (token == JsonToken.START_ARRAY) {
+                int position = 0;
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    identity &= setMapping(mapping, dimension, position++, parser.getText());
+                }
+            } else {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String category = parser.getCurrentName();
+                    parser.nextToken();
+                    identity &= setMapping(mapping, dimension, parser.getIntValue(), category);
+                }
+            }
+            if (!identity) {
+                if (valuesWritten)
+                    throw new IOException("Dimension " + dimensions.get(dimension).getCode() + " is in another order than the query and came after the values");
+                serverToOrdinal[dimension] = mapping;
+                remapped = true;
+            }
+        }
+    }
+
+    /**
+     * <h1>setMapping</h1>
+     *
+     * @return Returns true if the category is at the same position in the response as in the metadata.
+     */
+    private boolean setMapping(int[] mapping, int dimension, int position, String category) throws IOException {
+        int ordinal = dimensions.get(dimension).indexOf(category);
+        if (ordinal < 0 || position < 0 || position >= mapping.length)
+            throw new IOException("Category " + category + " of " + dimensions.get(dimension).getCode() + " is not in the query");
+        mapping[position] = ordinal;
+        return ordinal == position;
+    }
+
+    /**
+     * <h1>readValues</h1>
+     * <p>
+     * This method reads the values, which are either a dense array with one element per cell, or an object from cell
+     * index to value for sparse results.
+     *
+     * @param parser This is the parser, positioned at the start of the "value" array or object.
+     * @param sink   This is where the cells are written.
+     * @throws IOException Throws IOException if there are more values than cells.
+     */
+    private void readValues(JsonParser parser, TableCellSink sink) throws IOException {
+        valuesWritten = true;
+        if (parser.currentToken() == JsonToken.START_ARRAY) {
+            int position = 0;
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (position >= cellCount)
+                    throw new IOException("Response has more values than the " + cellCount + " cells of the query");
+                writeCell(parser, token, toIndex(position++), sink);
+            }
+        } else {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                int position = Integer.parseInt(parser.getCurrentName());
+                JsonToken token = parser.nextToken();
+                if (position < 0 || position >= cellCount)
+                    throw new IOException("Value index " + position + " is outside the " + cellCount + " cells of the query");
+                writeCell(parser, token, toIndex(position), sink);
+            }
+        }
+    }
+
+    /**
+     * <h1>readStatus</h1>
+     * <p>
+     * This method reads the status of the cells, which is either one symbol for every cell, an array with one element
+     * per cell, where an array of one element is for every cell, or an object from cell index to symbol. A symbol for
+     * every cell is written once, as the sink's {@link TableCellSink#defaultStatus(String)}.
+     *
+     * @param parser This is the parser, positioned at the "status" value.
+     * @param sink   This is where the statuses are written.
+     * @throws IOException Throws IOException if there are more statuses than cells.
+     */
+    private void readStatus(JsonParser parser, TableCellSink sink) throws IOException {
+        valuesWritten = true;
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_STRING) {
+            sink.defaultStatus(parser.getText());
+        } else if (token == JsonToken.START_ARRAY) {
+            int position = 0;
+            String first = null;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (position >= cellCount)
+                    throw new IOException("Response has more statuses than the " + cellCount + " cells of the query");
+                if (position == 0 && token == JsonToken.VALUE_STRING)
+                    first = parser.getText();
+                else if (token == JsonToken.VALUE_STRING)
+                    sink.status(toIndex(position), parser.getText());
+                if (position == 1 && first != null)
+                    sink.status(toIndex(0), first);
+                position++;
+            }
+            if (position == 1 && first != null)
+                sink.defaultStatus(first);
+        } else if (token == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                int position = Integer.parseInt(parser.getCurrentName());
+                token = parser.nextToken();
+                if (position < 0 || position >= cellCount)
+                    throw new IOException("Status index " + position + " is outside the " + cellCount + " cells of the query");
+                if (token == JsonToken.VALUE_STRING)
+                    sink.status(toIndex(position), parser.getText());
+            }
+        } else {
+            parser.skipChildren();
+        }
+    }
+
+    private void writeCell(JsonParser parser, JsonToken token, int index, TableCellSink sink) throws IOException {
+        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT)
+            sink.value(index, parser.getDoubleValue());
+        else
+            sink.missing(index);
+    }
+
+    /**
+     * <h1>toIndex</h1>
+     *
+     * @param position This is the position of a value in the response.
+     * @return Returns the row-major index of the cell in query order.
+     */
+    private int toIndex(int position) {
+        if (!remapped)
+            return position;
+        int index = 0;
+        for (int i = sizes.length - 1; i >= 0; i--) {
+            int serverPosition = position % sizes[i];
+            position /= sizes[i];
+            int ordinal = serverToOrdinal[i] == null ? serverPosition : serverToOrdinal[i][serverPosition];
+            index += ordinal * strides[i];
+        }
+        return index;
+    }
+
+    private int dimensionIndex(String code) {
+        for (int i = 0; i < dimensions.size(); i++) {
+            if (dimensions.get(i).getCode().equals(code))
+                return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,236 @@
+package no.ks.fiks.ssbAPI.tableApi;
+
+import no.ks.fiks.ssbAPI.metadataApi.SsbMetadataVariables;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <h1>PxDecoder</h1>
+ * <p>
+ * PxDecoder reads px query results and writes every cell to a {@link TableCellSink}. A px file is a list of
+ * {@code KEYWORD("variable")=value;} entries followed by the values after {@code DATA=}, in row-major order of the
+ * {@code STUB} variables and then the {@code HEADING} variables. Only the entries needed to place the cells are kept:
+ * <ul>
+ *     <li>{@code STUB}, {@code HEADING} and {@code VARIABLECODE}, to find the dimension of each variable</li>
+ *     <li>{@code CODES} and {@code VALUES}, to find the position of each value in the dimension</li>
+ *     <li>{@code CODEPAGE}, since px files are often iso-8859-1</li>
+ * </ul>
+ * The values after {@code DATA=} are streamed, so only the header is held in memory. Values in quotes, like
+ * {@code ".."}, are missing and get the symbol as status.
+ */
+
+public class PxDecoder implements TableDecoder {
+
+    private final List<SsbMetadataVariables> dimensions;
+    private final CategoryLookup lookup;
+    private final int[] strides;
+
+    /**
+     * Sets up a decoder for results of a query built from the metadata variables. Variables without values aren't in
+     * the query, so they aren't dimensions of the result either.
+     *
+     * @param dimensions This is the metadata variables of the chunk, in query order.
+     */
+    public PxDecoder(List<SsbMetadataVariables> dimensions) {
+        this.dimensions = SsbTableCube.queriedDimensions(dimensions);
+        this.lookup = new CategoryLookup(this.dimensions);
+        this.strides = lookup.strides();
+    }
+
+    /**
+     * <h1>decode</h1>
+     *
+     * @param body This is the px response body.
+     * @param sink This is where the cells are written.
+     * @throws IOException Throws IOException if the body can't be read or doesn't match the dimensions.
+     */
+    @Override
+    public void decode(InputStream body, TableCellSink sink) throws IOException {
+        // iso-8859-1 maps every byte to one char, so the text can be decoded again if the file is utf-8.
+        try (Reader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.ISO_8859_1))) {
+            Map<String, List<String>> header = new HashMap<>();
+            String keyword;
+            while ((keyword = readKeyword(reader)) != null) {
+                if (keyword.equals("DATA")) {
+                    readData(reader, layout(header), sink);
+                    return;
+                }
+                List<String> value = readValue(reader);
+                if (keyword.indexOf('[') < 0)
+                    header.put(keyword, value);
+            }
+            throw new IOException("px response has no DATA");
+        }
+    }
+
+    /**
+     * <h1>layout</h1>
+     *
+     * @param header This is the header entries by keyword, like 'VALUES("region")'.
+     * @return Returns for each px variable, in px order, the index offset of each of its values.
+     * @throws IOException Throws IOException if a variable or value isn't in the query.
+     */
+    private int[][] layout(Map<String, List<String>> header) throws IOException {
+        boolean utf8 = header.getOrDefault("CODEPAGE", List.of("iso-8859-1")).get(0).toLowerCase().replace("-", "").equals("utf8");
+        List<String> variables = new ArrayList<>(header.getOrDefault("STUB", List.of()));
+        variables.addAll(header.getOrDefault("HEADING", List.of()));
+        if (variables.size() != dimensions.size())
+            throw new IOException("Response has " + variables.size() + " variables, the query has " + dimensions.size());
+        int[][] offsets = new int[variables.size()][];
+        boolean[] used = new boolean[dimensions.size()];
+        for (int v = 0; v < variables.size(); v++) {
+            String name = variables.get(v);
+            List<String> code = header.get("VARIABLECODE(\"" + name + "\")");
+            int dimension = code != null ? lookup.dimension(decode(code.get(0), utf8)) : -1;
+            if (dimension < 0)
+                dimension = lookup.dimension(decode(name, utf8));
+            if (dimension < 0 || used[dimension])
+                throw new IOException("Variable " + decode(name, utf8) + " is not in the query");
+            used[dimension] = true;
+            List<String> values = header.get("CODES(\"" + name + "\")");
+            if (values == null)
+                values = header.get("VALUES(\"" + name + "\")");
+            if (values == null || values.size() != dimensions.get(dimension).size())
+                throw new IOException("Response size of " + dimensions.get(dimension).getCode() + " doesn't match the query");
+            offsets[v] = new int[values.size()];
+            for (int i = 0; i < values.size(); i++) {
+                int position = lookup.category(dimension, decode(values.get(i), utf8));
+                if (position < 0)
+                    throw new IOException("Value " + decode(values.get(i), utf8) + " of " + dimensions.get(dimension).getCode() + " is not in the query");
+                offsets[v][i] = position * strides[dimension];
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * <h1>readData</h1>
+     * <p>
+     * This method reads the values after DATA= and writes each to its cell, counting the position of each px variable
+     * with the last variable changing fastest.
+     *
+     * @param reader  This is the reader, positioned after DATA=.
+     * @param offsets This is the index offset of each value of each px variable.
+     * @param sink    This is where the cells are written.
+     * @throws IOException Throws IOException if there are more values than cells.
+     */
+    private void readData(Reader reader, int[][] offsets, TableCellSink sink) throws IOException {
+        int[] counters = new int[offsets.length];
+        int index = 0;
+        for (int[] variable : offsets) {
+            index += variable[0];
+        }
+        boolean done = offsets.length == 0;
+        StringBuilder token = new StringBuilder();
+        boolean quoted = false;
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (c == '"') {
+                quoted = !quoted;
+                token.append((char) c);
+                continue;
+            }
+            boolean end = c == ';' && !quoted;
+            if (!quoted && (end || Character.isWhitespace(c) || c == ',')) {
+                if (token.length() > 0) {
+                    if (done)
+                        throw new IOException("Response has more values than the cells of the query");
+                    String value = token.toString();
+                    double parsed = value.charAt(0) == '"' ? Double.NaN : CategoryLookup.parseValue(value, false);
+                    if (Double.isNaN(parsed)) {
+                        sink.missing(index);
+                        String status = value.replace("\"", "");
+                        if (!status.isEmpty())
+                            sink.status(index, status);
+                    } else {
+                        sink.value(index, parsed);
+                    }
+                    token.setLength(0);
+                    int v = offsets.length - 1;
+                    while (v >= 0) {
+                        index -= offsets[v][counters[v]];
+                        if (++counters[v] < offsets[v].length) {
+                            index += offsets[v][counters[v]];
+                            break;
+                        }
+                        counters[v] = 0;
+                        index += offsets[v][0];
+                        v--;
+                    }
+                    done = v < 0;
+                }
+                if (end)
+                    return;
+            } else {
+                token.append((char) c);
+            }
+        }
+    }
+
+    /**
+     * <h1>readKeyword</h1>
+     *
+     * @param reader This is the reader, positioned at the start of an entry.
+     * @return Returns the keyword with its variable, like 'VALUES("region")', or null at the end of the body.
+     * @throws IOException Throws IOException if the body can't be read.
+     */
+    private static String readKeyword(Reader reader) throws IOException {
+        StringBuilder keyword = new StringBuilder();
+        boolean quoted = false;
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (c == '"')
+                quoted = !quoted;
+            else if (c == '=' && !quoted)
+                return keyword.toString();
+            if (quoted || !Character.isWhitespace(c))
+                keyword.append((char) c);
+        }
+        return null;
+    }
+
+    /**
+     * <h1>readValue</h1>
+     * <p>
+     * This method reads the value of an entry up to ';'. A list is separated by ',', and the quoted strings of one
+     * item are joined, since long texts are split over several lines.
+     *
+     * @param reader This is the reader, positioned after '='.
+     * @return Returns the items of the value.
+     * @throws IOException Throws IOException if the body ends inside the value.
+     */
+    private static List<String> readValue(Reader reader) throws IOException {
+        List<String> items = new ArrayList<>();
+        StringBuilder item = new StringBuilder();
+        boolean quoted = false;
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (quoted) {
+                item.append((char) c);
+            } else if (c == ',' || c == ';') {
+                items.add(item.toString());
+                item.setLength(0);
+                if (c == ';')
+                    return items;
+            } else if (!Character.isWhitespace(c)) {
+                item.append((char) c);
+            }
+        }
+        throw new IOException("px response ends inside an entry");
+    }
+
+    private static String decode(String text, boolean utf8) {
+        return utf8 ? new String(text.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8) : text;
+    }
+}
@@ -0,0 +1,80 @@
+package no.ks.fiks.ssbAPI.tableApi;
+
+import no.ks.fiks.ssbAPI.metadataApi.SsbMetadataVariables;
+
+import java.util.List;
+
+/**
+ * <h1>ResponseFormat</h1>
+ * <p>
+ * The response formats of the PxWeb table API that can be decoded, each with its own streaming {@link TableDecoder}.
+ * json-stat2 is the default. The CSV formats are cheaper for the server to write and smaller for tables with few
+ * dimensions, and px is the format of the table files themselves.
+ */
+public enum ResponseFormat {
+    JSON_STAT2("json-stat2", true),
+    JSON_STAT("json-stat", true),
+    CSV("csv", false),
+    CSV2("csv2", false),
+    CSV3("csv3", false),
+    PX("px", false);
+
+    private final String name;
+    private final boolean json;
+
+    ResponseFormat(String name, boolean json) {
+        this.name = name;
+        this.json = json;
+    }
+
+    /**
+     * <h1>getName</h1>
+     *
+     * @return Returns the name of the format in the query, like 'json-stat2'.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * <h1>isJson</h1>
+     *
+     * @return Returns true if the responses are JSON.
+     */
+    public boolean isJson() {
+        return json;
+    }
+
+    /**
+     * <h1>decoder</h1>
+     *
+     * @param dimensions This is the metadata variables of the chunk, in query order.
+     * @return Returns a new decoder for one result in this format.
+     */
+    public TableDecoder decoder(List<SsbMetadataVariables> dimensions) {
+        switch (this) {
+            case JSON_STAT2:
+            case JSON_STAT:
+                return new JsonStat2Decoder(dimensions);
+            case PX:
+                return new PxDecoder(dimensions);
+            default:
+                return new CsvDecoder(dimensions);
+        }
+    }
+
+    /**
+     * <h1>fromName</h1>
+     *
+     * @param name This is the name of the format in the query.
+     * @return Returns the format.
+     * @throws IllegalArgumentException Throws IllegalArgumentException if the format can't be decoded.
+     */
+    public static ResponseFormat fromName(String name) {
+        for (ResponseFormat format : values()) {
+            if (format.name.equalsIgnoreCase(name))
+                return format;
+        }
+        throw new IllegalArgumentException("Unsupported response format: " + name);
+    }
+}
@@ -0,0 +1,309 @@
+package no.ks.fiks.ssbAPI.tableApi;
+
+import no.ks.fiks.ssbAPI.metadataApi.SsbMetadataVariables;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <h1>SparseTableCube</h1>
+ * <p>
+ * SparseTableCube is the sparse version of {@link SsbTableCube}. Only the cells with a value are kept, as a packed
+ * {@code int[]} of row-major indexes and a {@code double[]} of values, so memory scales with the data in the result
+ * and not with the cross product of the dimensions. Tables where many valid regions have no data for a year are
+ * mostly null cells, which are dropped as they are decoded.
+ * <p>
+ * The status of a cell, like '..' or ':', is kept the same way, with each symbol stored once and a byte per cell, so
+ * a cell that only has a status costs 5 bytes. The cells are sorted by index the first time they are read, so
+ * {@link #getValue(int)} is a binary search. A cube is written by one decoder and read after it is done.
+ */
+
+public class SparseTableCube implements TableCellSink {
+
+    private static final int MAX_SYMBOLS = 256;
+
+    private final List<SsbMetadataVariables> dimensions;
+    private final int[] sizes;
+    private final int[] strides;
+    private final int cellCount;
+    private int[] indexes = new int[16];
+    private double[] values = new double[16];
+    private int count;
+    private boolean sorted = true;
+    private int[] statusIndexes = new int[4];
+    private byte[] statusCodes = new byte[4];
+    private int statusCount;
+    private boolean statusSorted = true;
+    private final List<String> symbols = new ArrayList<>();
+    private final Map<String, Integer> symbolCodes = new HashMap<>();
+    private String defaultStatus;
+
+    /**
+     * Sets up an empty cube for the cross product of the dimensions. Variables without values aren't dimensions, see
+     * {@link SsbTableCube#queriedDimensions(List)}.
+     *
+     * @param dimensions This is the metadata variables of the table or chunk, in query order.
+     * @throws IllegalArgumentException Throws IllegalArgumentException if the cube has more cells than an int can index.
+     */
+    public SparseTableCube(List<SsbMetadataVariables> dimensions) {
+        dimensions = SsbTableCube.queriedDimensions(dimensions);
+        this.dimensions = Collections.unmodifiableList(dimensions);
+        this.sizes = new int[dimensions.size()];
+        this.strides = new int[dimensions.size()];
+        long cells = 1;
+        for (int i = dimensions.size() - 1; i >= 0; i--) {
+            sizes[i] = dimensions.get(i).size();
+            strides[i] = (int) Math.min(cells, Integer.MAX_VALUE);
+            cells *= sizes[i];
+            if (cells > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Table has too many cells for one cube: " + cells);
+        }
+        this.cellCount = (int) cells;
+    }
+
+    @Override
+    public void value(int index, double value) {
+        if (count == indexes.length) {
+            indexes = Arrays.copyOf(indexes, count * 2);
+            values = Arrays.copyOf(values, count * 2);
+        }
+        sorted &= count == 0 || indexes[count - 1] < index;
+        indexes[count] = index;
+        values[count++] = value;
+    }
+
+    @Override
+    public void missing(int index) {
+    }
+
+    @Override
+    public void status(int index, String status) {
+        Integer code = symbolCodes.get(status);
+        if (code == null) {
+            if (symbols.size() == MAX_SYMBOLS)
+                throw new IllegalStateException("More than " + MAX_SYMBOLS + " different status symbols");
+            code = symbols.size();
+            symbols.add(status);
+            symbolCodes.put(status, code);
+        }
+        if (statusCount == statusIndexes.length) {
+            statusIndexes = Arrays.copyOf(statusIndexes, statusCount * 2);
+            statusCodes = Arrays.copyOf(statusCodes, statusCount * 2);
+        }
+        statusSorted &= statusCount == 0 || statusIndexes[statusCount - 1] < index;
+        statusIndexes[statusCount] = index;
+        statusCodes[statusCount++] = (byte) (int) code;
+    }
+
+    @Override
+    public void defaultStatus(String status) {
+        this.defaultStatus = status;
+    }
+
+    /**
+     * <h1>getValue</h1>
+     *
+     * @param index This is the row-major index of the cell.
+     * @return Returns the value of the cell, or NaN if it has none.
+     */
+    public double getValue(int index) {
+        sortValues();
+        int entry = Arrays.binarySearch(indexes, 0, count, index);
+        return entry < 0 ? Double.NaN : values[entry];
+    }
+
+    /**
+     * <h1>getStatus</h1>
+     *
+     * @param index This is the row-major index of the cell.
+     * @return Returns the status symbol of the cell, the default status if it has none of its own, or null.
+     */
+    public String getStatus(int index) {
+        sortStatuses();
+        int entry = Arrays.binarySearch(statusIndexes, 0, statusCount, index);
+        return entry < 0 ? defaultStatus : symbols.get(statusCodes[entry] & 0xff);
+    }
+
+    /**
+     * <h1>getDefaultStatus</h1>
+     *
+     * @return Returns the status of every cell without its own status, or null if the result had none.
+     */
+    public String getDefaultStatus() {
+        return defaultStatus;
+    }
+
+    /**
+     * <h1>getIndexes</h1>
+     *
+     * @return Returns a copy of the indexes of the cells with a value, in ascending order.
+     */
+    public int[] getIndexes() {
+        sortValues();
+        return Arrays.copyOf(indexes, count);
+    }
+
+    /**
+     * <h1>getValues</h1>
+     *
+     * @return Returns a copy of the values, in the same order as {@link #getIndexes()}.
+     */
+    public double[] getValues() {
+        sortValues();
+        return Arrays.copyOf(values, count);
+    }
+
+    /**
+     * <h1>getStatusIndexes</h1>
+     *
+     * @return Returns a copy of the indexes of the cells with their own status, in ascending order.
+     */
+    public int[] getStatusIndexes() {
+        sortStatuses();
+        return Arrays.copyOf(statusIndexes, statusCount);
+    }
+
+    /**
+     * <h1>getStatuses</h1>
+     *
+     * @return Returns the status symbols, in the same order as {@link #getStatusIndexes()}.
+     */
+    public String[] getStatuses() {
+        sortStatuses();
+        String[] statuses = new String[statusCount];
+        for (int i = 0; i < statusCount; i++) {
+            statuses[i] = symbols.get(statusCodes[i] & 0xff);
+        }
+        return statuses;
+    }
+
+    /**
+     * <h1>ordinals</h1>
+     *
+     * @param index This is the row-major index of a cell.
+     * @return Returns the position of the cell in each dimension's values.
+     */
+    public int[] ordinals(int index) {
+        if (index < 0 || index >= cellCount)
+            throw new IndexOutOfBoundsException("Index " + index + " out of range for " + cellCount + " cells");
+        int[] ordinals = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            ordinals[i] = index / strides[i];
+            index %= strides[i];
+        }
+        return ordinals;
+    }
+
+    /**
+     * <h1>indexOf</h1>
+     *
+     * @param codes This is the value code of the cell in each dimension.
+     * @return Returns the row-major index of the cell, or -1 if one of the codes isn't in its dimension.
+     */
+    public int indexOf(String... codes) {
+        if (codes.length != sizes.length)
+            throw new IllegalArgumentException("Expected " + sizes.length + " codes, got " + codes.length);
+        int index = 0;
+        for (int i = 0; i < codes.length; i++) {
+            int ordinal = dimensions.get(i).indexOf(codes[i]);
+            if (ordinal < 0)
+                return -1;
+            index += ordinal * strides[i];
+        }
+        return index;
+    }
+
+    /**
+     * <h1>getValueCount</h1>
+     *
+     * @return Returns the number of cells with a value.
+     */
+    public int getValueCount() {
+        return count;
+    }
+
+    /**
+     * <h1>getStatusCount</h1>
+     *
+     * @return Returns the number of cells with their own status, which doesn't count the default status.
+     */
+    public int getStatusCount() {
+        return statusCount;
+    }
+
+    /**
+     * <h1>getCellCount</h1>
+     *
+     * @return Returns the number of cells in the cross product of the dimensions.
+     */
+    public int getCellCount() {
+        return cellCount;
+    }
+
+    /**
+     * <h1>getDimensions</h1>
+     *
+     * @return Returns the metadata variables that are the dimensions of the cube.
+     */
+    public List<SsbMetadataVariables> getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * <h1>getSizes</h1>
+     *
+     * @return Returns the number of values in each dimension.
+     */
+    public int[] getSizes() {
+        return sizes.clone();
+    }
+
+    /**
+     * <h1>sortValues</h1>
+     * <p>
+     * Sorts the cells by index if they weren't written in order, which happens when the server sends a dimension in
+     * another order than the query. The index and position are packed in a long, so the sort is on primitives.
+     */
+    private void sortValues() {
+        if (sorted)
+            return;
+        long[] keys = sortKeys(indexes, count);
+        int[] sortedIndexes = new int[count];
+        double[] sortedValues = new double[count];
+        for (int i = 0; i < count; i++) {
+            sortedIndexes[i] = (int) (keys[i] >>> 32);
+            sortedValues[i] = values[(int) keys[i]];
+        }
+        indexes = sortedIndexes;
+        values = sortedValues;
+        sorted = true;
+    }
+
+    private void sortStatuses() {
+        if (statusSorted)
+            return;
+        long[] keys = sortKeys(statusIndexes, statusCount);
+        int[] sortedIndexes = new int[statusCount];
+        byte[] sortedCodes = new byte[statusCount];
+        for (int i = 0; i < statusCount; i++) {
+            sortedIndexes[i] = (int) (keys[i] >>> 32);
+            sortedCodes[i] = statusCodes[(int) keys[i]];
+        }
+        statusIndexes = sortedIndexes;
+        statusCodes = sortedCodes;
+        statusSorted = true;
+    }
+
+    private static long[] sortKeys(int[] indexes, int count) {
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = ((long) indexes[i] << 32) | i;
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+}
@@ -0,0 +1,216 @@
+package no.ks.fiks.ssbAPI.tableApi;
+
+import no.ks.fiks.ssbAPI.metadataApi.SsbMetadataVariables;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <h1>SsbTableCube</h1>
+ * <p>
+ * SsbTableCube holds the decoded result of a table query as columns of primitives instead of JSON text. The dimensions
+ * are the metadata variables the query was built from, which work as dictionaries from a cell's ordinal in each
+ * dimension to its code and text. The values are kept in one {@code double[]} in row-major order, and the cells
+ * without a value are marked in a {@link BitSet}, so a cell costs 8 bytes and a bit no matter how big the JSON was.
+ * <p>
+ * Every cell starts out missing, and stays missing until a decoder writes a value to it.
+ */
+
+public class SsbTableCube implements TableCellSink {
+
+    private final List<SsbMetadataVariables> dimensions;
+    private final int[] sizes;
+    private final int[] strides;
+    private final double[] values;
+    private final BitSet missing;
+
+    /**
+     * Allocates the cube for the cross product of the dimensions. Variables without values aren't dimensions, see
+     * {@link #queriedDimensions(List)}.
+     *
+     * @param dimensions This is the metadata variables of the table or chunk, in query order.
+     * @throws IllegalArgumentException Throws IllegalArgumentException if the cube has more cells than an array can hold.
+     */
+    public SsbTableCube(List<SsbMetadataVariables> dimensions) {
+        dimensions = queriedDimensions(dimensions);
+        this.dimensions = Collections.unmodifiableList(dimensions);
+        this.sizes = new int[dimensions.size()];
+        this.strides = new int[dimensions.size()];
+        long cells = 1;
+        for (int i = dimensions.size() - 1; i >= 0; i--) {
+            sizes[i] = dimensions.get(i).size();
+            strides[i] = (int) Math.min(cells, Integer.MAX_VALUE);
+            cells *= sizes[i];
+            if (cells > Integer.MAX_VALUE - 8)
+                throw new IllegalArgumentException("Table has too many cells for one cube: " + cells);
+        }
+        this.values = new double[(int) cells];
+        this.missing = new BitSet(values.length);
+        this.missing.set(0, values.length);
+    }
+
+    /**
+     * <h1>queriedDimensions</h1>
+     * <p>
+     * A variable with no values, like one eliminated with the metadata filter 'NONE', is left out of the query by
+     * {@link no.ks.fiks.ssbAPI.APIService.QuerySelection#forVariable}, so the server answers without it. The cubes,
+     * decoders and merger use this method so their layout is the same as the response.
+     *
+     * @param variables This is the metadata variables of the table or chunk, in query order.
+     * @return Returns the variables with at least one value, in the same order.
+     */
+    public static List<SsbMetadataVariables> queriedDimensions(List<SsbMetadataVariables> variables) {
+        List<SsbMetadataVariables> queried = new ArrayList<>(variables.size());
+        for (SsbMetadataVariables variable : variables) {
+            if (variable.size() > 0)
+                queried.add(variable);
+        }
+        return queried;
+    }
+
+    @Override
+    public void value(int index, double value) {
+        values[index] = value;
+        missing.clear(index);
+    }
+
+    @Override
+    public void missing(int index) {
+        values[index] = Double.NaN;
+        missing.set(index);
+    }
+
+    /**
+     * <h1>markPresent</h1>
+     * <p>
+     * Marks a cell as having a value, for sinks that write to {@link #getValues()} directly.
+     *
+     * @param index This is the row-major index of the cell.
+     */
+    void markPresent(int index) {
+        missing.clear(index);
+    }
+
+    /**
+     * <h1>index</h1>
+     *
+     * @param ordinals This is the position of the cell in each dimension's values.
+     * @return Returns the row-major index of the cell.
+     */
+    public int index(int... ordinals) {
+        if (ordinals.length != sizes.length)
+            throw new IllegalArgumentException("Expected " + sizes.length + " ordinals, got " + ordinals.length);
+        int index = 0;
+        for (int i = 0; i < ordinals.length; i++) {
+            if (ordinals[i] < 0 || ordinals[i] >= sizes[i])
+                throw new IndexOutOfBoundsException("Ordinal " + ordinals[i] + " out of range for " + dimensions.get(i).getCode());
+            index += ordinals[i] * strides[i];
+        }
+        return index;
+    }
+
+    /**
+     * <h1>indexOf</h1>
+     *
+     * @param codes This is the value code of the cell in each dimension.
+     * @return Returns the row-major index of the cell, or -1 if one of the codes isn't in its dimension.
+     */
+    public int indexOf(String... codes) {
+        if (codes.length != sizes.length)
+            throw new IllegalArgumentException("Expected " + sizes.length + " codes, got " + codes.length);
+        int index = 0;
+        for (int i = 0; i < codes.length; i++) {
+            int ordinal = dimensions.get(i).indexOf(codes[i]);
+            if (ordinal < 0)
+                return -1;
+            index += ordinal * strides[i];
+        }
+        return index;
+    }
+
+    /**
+     * <h1>getValue</h1>
+     *
+     * @param index This is the row-major index of the cell.
+     * @return Returns the value of the cell, or NaN if it is missing.
+     */
+    public double getValue(int index) {
+        return missing.get(index) ? Double.NaN : values[index];
+    }
+
+    /**
+     * <h1>isMissing</h1>
+     *
+     * @param index This is the row-major index of the cell.
+     * @return Returns true if the cell has no value.
+     */
+    public boolean isMissing(int index) {
+        return missing.get(index);
+    }
+
+    /**
+     * <h1>getValues</h1>
+     *
+     * @return Returns the value array itself, in row-major order. Missing cells hold 0 or NaN, use
+     * {@link #isMissing(int)} to tell them apart from real values.
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * <h1>getMissing</h1>
+     *
+     * @return Returns a copy of the bitmap of cells without a value.
+     */
+    public BitSet getMissing() {
+        return (BitSet) missing.clone();
+    }
+
+    /**
+     * <h1>getMissingCount</h1>
+     *
+     * @return Returns the number of cells without a value.
+     */
+    public int getMissingCount() {
+        return missing.cardinality();
+    }
+
+    /**
+     * <h1>getCellCount</h1>
+     *
+     * @return Returns the number of cells in the cube.
+     */
+    public int getCellCount() {
+        return values.length;
+    }
+
+    /**
+     * <h1>getDimensions</h1>
+     *
+     * @return Returns the metadata variables that are the dimensions of the cube.
+     */
+    public List<SsbMetadataVariables> getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * <h1>getSizes</h1>
+     *
+     * @return Returns the number of values in each dimension.
+     */
+    public int[] getSizes() {
+        return sizes.clone();
+    }
+
+    /**
+     * <h1>getStrides</h1>
+     *
+     * @return Returns how far apart two neighbouring values of each dimension are in the value array.
+     */
+    public int[] getStrides() {
+        return strides.clone();
+    }
+}
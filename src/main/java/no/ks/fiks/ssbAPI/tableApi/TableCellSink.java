@@ -0,0 +1,50 @@
+package no.ks.fiks.ssbAPI.tableApi;
+
+/**
+ * <h1>TableCellSink</h1>
+ * <p>
+ * The sink the table decoders write cells to. A cell is identified by its index in the row-major order of the
+ * metadata variables of the chunk it came from, so the first variable changes slowest and the last variable fastest,
+ * the same order json-stat2 uses for its values.
+ * <p>
+ * A cell can also get a status, like '..' for a value that isn't published yet, from the json-stat2 "status" field
+ * or the symbol in a CSV or px cell. Sinks that don't keep statuses can ignore them.
+ */
+public interface TableCellSink {
+
+    /**
+     * <h1>value</h1>
+     *
+     * @param index This is the row-major index of the cell.
+     * @param value This is the value of the cell.
+     */
+    void value(int index, double value);
+
+    /**
+     * <h1>missing</h1>
+     *
+     * @param index This is the row-major index of a cell that has no value.
+     */
+    void missing(int index);
+
+    /**
+     * <h1>status</h1>
+     *
+     * @param index  This is the row-major index of the cell.
+     * @param status This is the status symbol of the cell.
+     */
+    default void status(int index, String status) {
+    }
+
+    /**
+     * <h1>defaultStatus</h1>
+     * <p>
+     * Sets the status of every cell that doesn't get its own, for json-stat2 results with one status for the whole
+     * result. It is written once instead of to every cell, so a sink that keeps statuses per cell doesn't grow with
+     * the number of cells.
+     *
+     * @param status This is the status symbol of every cell without its own status.
+     */
+    default void defaultStatus(String status) {
+    }
+}
@@ -0,0 +1,135 @@
+package no.ks.fiks.ssbAPI.tableApi;
+
+import no.ks.fiks.ssbAPI.metadataApi.SsbMetadataVariables;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * <h1>TableCubeMerger</h1>
+ * <p>
+ * TableCubeMerger puts the chunks of a table back together into one {@link SsbTableCube} for the whole table. The cube
+ * is allocated once from the table's metadata, and each chunk is decoded straight into it through the sink from
+ * {@link #sinkFor(List)}, which translates the chunk's row-major index to the index in the table. There is no
+ * concatenating or sorting afterwards.
+ * <p>
+ * The chunks cover disjoint cells, so several chunks can be decoded into the merger at the same time. Cells that no
+ * chunk covers, like regions that weren't valid a year, stay missing.
+ */
+
+public class TableCubeMerger {
+
+    private final SsbTableCube cube;
+
+    /**
+     * Allocates the cube for the whole table.
+     *
+     * @param dimensions This is the metadata variables of the table, in query order.
+     */
+    public TableCubeMerger(List<SsbMetadataVariables> dimensions) {
+        this.cube = new SsbTableCube(dimensions);
+    }
+
+    /**
+     * <h1>sinkFor</h1>
+     * <p>
+     * Creates the sink a chunk is decoded into. Each sink must only be used by one decoder, and {@link ChunkSink#finish()}
+     * must be called when the chunk is decoded.
+     *
+     * @param chunkDimensions This is the metadata variables of the chunk, in query order.
+     * @return Returns a sink that writes the chunk's cells into the table cube.
+     * @throws IllegalArgumentException Throws IllegalArgumentException if the chunk isn't part of the table.
+     */
+    public ChunkSink sinkFor(List<SsbMetadataVariables> chunkDimensions) {
+        chunkDimensions = SsbTableCube.queriedDimensions(chunkDimensions);
+        List<SsbMetadataVariables> dimensions = cube.getDimensions();
+        if (chunkDimensions.size() != dimensions.size())
+            throw new IllegalArgumentException("Chunk has " + chunkDimensions.size() + " dimensions, the table has " + dimensions.size());
+        int[] strides = cube.getStrides();
+        int[] chunkSizes = new int[chunkDimensions.size()];
+        int[][] offsets = new int[chunkDimensions.size()][];
+        for (int i = 0; i < chunkDimensions.size(); i++) {
+            SsbMetadataVariables chunkDimension = chunkDimensions.get(i);
+            if (!chunkDimension.getCode().equals(dimensions.get(i).getCode()))
+                throw new IllegalArgumentException("Chunk dimension " + chunkDimension.getCode() + " is not table dimension " + dimensions.get(i).getCode());
+            chunkSizes[i] = chunkDimension.size();
+            offsets[i] = new int[chunkSizes[i]];
+            for (int j = 0; j < chunkSizes[i]; j++) {
+                int ordinal = dimensions.get(i).indexOf(chunkDimension.getValue(j));
+                if (ordinal < 0)
+                    throw new IllegalArgumentException("Value " + chunkDimension.getValue(j) + " of " + chunkDimension.getCode() + " is not in the table");
+                offsets[i][j] = ordinal * strides[i];
+            }
+        }
+        return new ChunkSink(chunkSizes, offsets);
+    }
+
+    /**
+     * <h1>getCube</h1>
+     *
+     * @return Returns the cube for the whole table.
+     */
+    public SsbTableCube getCube() {
+        return cube;
+    }
+
+    /**
+     * <h1>ChunkSink</h1>
+     * <p>
+     * The sink for one chunk. The values are written straight into the table cube, which is safe since no other chunk
+     * has the same cells. Which cells had a value is collected per chunk and marked in the table cube's bitmap in
+     * {@link #finish()}, since a {@link BitSet} can't be written from several threads.
+     */
+    public class ChunkSink implements TableCellSink {
+        private final int[] sizes;
+        private final int[][] offsets;
+        private final double[] values;
+        private final BitSet present;
+
+        private ChunkSink(int[] sizes, int[][] offsets) {
+            this.sizes = sizes;
+            this.offsets = offsets;
+            this.values = cube.getValues();
+            this.present = new BitSet();
+        }
+
+        @Override
+        public void value(int index, double value) {
+            values[toTableIndex(index)] = value;
+            present.set(index);
+        }
+
+        @Override
+        public void missing(int index) {
+            values[toTableIndex(index)] = Double.NaN;
+        }
+
+        /**
+         * <h1>finish</h1>
+         * <p>
+         * Marks the cells of the chunk that had a value in the table cube.
+         */
+        public void finish() {
+            synchronized (cube) {
+                for (int index = present.nextSetBit(0); index >= 0; index = present.nextSetBit(index + 1)) {
+                    cube.markPresent(toTableIndex(index));
+                }
+            }
+        }
+
+        /**
+         * <h1>toTableIndex</h1>
+         *
+         * @param index This is the row-major index of a cell in the chunk.
+         * @return Returns the row-major index of the cell in the table.
+         */
+        private int toTableIndex(int index) {
+            int tableIndex = 0;
+            for (int i = sizes.length - 1; i >= 0; i--) {
+                tableIndex += offsets[i][index % sizes[i]];
+                index /= sizes[i];
+            }
+            return tableIndex;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package no.ks.fiks.ssbAPI.tableApi;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <h1>TableDecoder</h1>
+ * <p>
+ * A streaming decoder for one query result in one {@link ResponseFormat}. Every decoder reads the body once, without
+ * holding it in memory, and writes the cells to a {@link TableCellSink} by their row-major index in the order of the
+ * metadata variables of the chunk, so the same sinks work for every format.
+ */
+public interface TableDecoder {
+
+    /**
+     * <h1>decode</h1>
+     *
+     * @param body This is the response body.
+     * @param sink This is where the cells are written.
+     * @throws IOException Throws IOException if the body can't be read or doesn't match the metadata variables.
+     */
+    void decode(InputStream body, TableCellSink sink) throws IOException;
+}
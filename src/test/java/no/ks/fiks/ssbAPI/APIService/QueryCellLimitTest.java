@@ -0,0 +1,56 @@
+package no.ks.fiks.ssbAPI.APIService;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryCellLimitTest {
+
+    @Test
+    void defaultUntilAQueryFillsIt() {
+        QueryCellLimit limit = new QueryCellLimit(1000);
+        limit.succeeded(400, 1000);
+        assertEquals(1000, limit.limit());
+        limit.succeeded(936, 1000);
+        assertAll("Checking that a filled limit is probed upwards",
+                () -> assertEquals(1125, limit.limit()),
+                () -> assertFalse(limit.isTooBig(1125)));
+        limit.succeeded(1100, 1125);
+        assertEquals(1265, limit.limit());
+    }
+
+    @Test
+    void convergesBetweenSuccessAndRefusal() {
+        QueryCellLimit limit = new QueryCellLimit(1000);
+        limit.succeeded(1000, 1000);
+        limit.failed(1125);
+        assertEquals(1062, limit.limit());
+        limit.succeeded(1062, 1062);
+        assertEquals(1093, limit.limit());
+        limit.failed(1093);
+        assertEquals(1077, limit.limit());
+        limit.succeeded(1077, 1077);
+        assertEquals(1084, limit.limit());
+        limit.succeeded(1084, 1084);
+        assertAll("Checking that the limit settles on the biggest success",
+                () -> assertEquals(1084, limit.limit()),
+                () -> assertTrue(limit.isTooBig(1093)),
+                () -> assertFalse(limit.isTooBig(1092)));
+    }
+
+    @Test
+    void newestResultWins() {
+        QueryCellLimit limit = new QueryCellLimit(1000);
+        limit.succeeded(800, 1000);
+        limit.failed(500);
+        assertAll("Checking that a smaller refusal drops the success",
+                () -> assertEquals(499, limit.getLargestSuccess()),
+                () -> assertEquals(499, limit.limit()));
+        limit.succeeded(600, 1000);
+        assertAll("Checking that a bigger success drops the refusal",
+                () -> assertEquals(Long.MAX_VALUE, limit.getSmallestFailure()),
+                () -> assertEquals(1000, limit.limit()));
+        assertSame(QueryCellLimit.forTable("https://data.ssb.no/api/v0/no/table/12367"),
+                QueryCellLimit.forTable("https://data.ssb.no/api/v0/no/table/12367"));
+    }
+}
@@ -0,0 +1,73 @@
+package no.ks.fiks.ssbAPI.APIService;
+
+import no.ks.fiks.ssbAPI.metadataApi.SsbMetadataVariables;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QuerySelectionTest {
+
+    private static SsbMetadataVariables variable(String code, List<String> values) {
+        return new SsbMetadataVariables(code, code, values, values);
+    }
+
+    @Test
+    void completeVariableIsSelectedWithAll() {
+        QuerySelection selection = QuerySelection.forVariable(variable("ContentsCode", List.of("A", "B")), null);
+        assertAll("Checking the all selection",
+                () -> assertEquals("all", selection.getFilter()),
+                () -> assertEquals(List.of("*"), selection.getValues()));
+    }
+
+    @Test
+    void latestPeriodsAreSelectedWithTop() {
+        SsbMetadataVariables tid = variable("Tid", List.of("2019K3", "2019K4", "2020K1", "2020K2"));
+        BitSet latest = new BitSet();
+        latest.set(1, 4);
+        tid.retain(latest);
+        QuerySelection selection = QuerySelection.forVariable(tid, null);
+        assertAll("Checking the top selection",
+                () -> assertEquals("top", selection.getFilter()),
+                () -> assertEquals(List.of("3"), selection.getValues()));
+    }
+
+    @Test
+    void cachedMetadataIsListedWithItem() {
+        SsbMetadataVariables tid = variable("Tid", List.of("2019", "2020", "2021"));
+        BitSet latest = new BitSet();
+        latest.set(1, 3);
+        tid.retain(latest);
+        QuerySelection all = QuerySelection.forVariable(variable("ContentsCode", List.of("A", "B")), null, false);
+        QuerySelection top = QuerySelection.forVariable(tid, null, false);
+        assertAll("Checking that all and top aren't used without the server's metadata",
+                () -> assertEquals("item", all.getFilter()),
+                () -> assertEquals(List.of("A", "B"), all.getValues()),
+                () -> assertEquals("item", top.getFilter()),
+                () -> assertEquals(List.of("2020", "2021"), top.getValues()));
+    }
+
+    @Test
+    void slicesAreListedWithItem() {
+        SsbMetadataVariables regions = variable("Region", List.of("3001", "3002", "3003"));
+        SsbMetadataVariables slice = regions.slice(0, 2);
+        QuerySelection selection = QuerySelection.forVariable(slice, null);
+        assertAll("Checking the item selection",
+                () -> assertEquals("item", selection.getFilter()),
+                () -> assertEquals(List.of("3001", "3002"), selection.getValues()),
+                () -> assertNull(QuerySelection.forVariable(regions.slice(0, 0), null)));
+    }
+
+    @Test
+    void aggregationReplacesTheValues() {
+        QuerySelection counties = QuerySelection.agg("KommFylker", List.of("F-30", "F-31"));
+        SsbMetadataVariables regions = counties.apply(variable("Region", List.of("3001", "3002", "3101")));
+        QuerySelection selection = QuerySelection.forVariable(regions.slice(1, 2), counties);
+        assertAll("Checking the aggregation",
+                () -> assertEquals(List.of("F-30", "F-31"), regions.getValues()),
+                () -> assertEquals("agg:KommFylker", selection.getFilter()),
+                () -> assertEquals(List.of("F-31"), selection.getValues()));
+    }
+}
@@ -0,0 +1,86 @@
+package no.ks.fiks.ssbAPI.APIService;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetryPolicyTest {
+
+    @Test
+    void delayGrowsExponentiallyUpToMax() {
+        RetryPolicy policy = new RetryPolicy(10, Duration.ofSeconds(1), Duration.ofSeconds(10), 0, Duration.ofMinutes(1));
+        assertAll("Checking the delay without jitter",
+                () -> assertEquals(1000, policy.delayMillis(0, Optional.empty())),
+                () -> assertEquals(2000, policy.delayMillis(1, Optional.empty())),
+                () -> assertEquals(8000, policy.delayMillis(3, Optional.empty())),
+                () -> assertEquals(10000, policy.delayMillis(4, Optional.empty())),
+                () -> assertEquals(10000, policy.delayMillis(40, Optional.empty())));
+    }
+
+    @Test
+    void jitterStaysWithinRange() {
+        RetryPolicy policy = new RetryPolicy(10, Duration.ofSeconds(4), Duration.ofSeconds(60), 0.5, Duration.ofMinutes(1));
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.delayMillis(0, Optional.empty());
+            assertTrue(delay >= 2000 && delay <= 4000, "Delay was " + delay);
+        }
+    }
+
+    @Test
+    void retryAfterIsUsed() {
+        RetryPolicy policy = RetryPolicy.defaultPolicy();
+        assertEquals(7000, policy.delayMillis(0, RetryPolicy.parseRetryAfter(Optional.of("7"))));
+    }
+
+    @Test
+    void retryAfterDateIsParsed() {
+        String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now().plusSeconds(30));
+        Duration wait = RetryPolicy.parseRetryAfter(Optional.of(date)).orElseThrow();
+        assertTrue(wait.toSeconds() > 20 && wait.toSeconds() <= 30, "Wait was " + wait);
+        assertEquals(Optional.empty(), RetryPolicy.parseRetryAfter(Optional.of("soon")));
+        assertEquals(Optional.empty(), RetryPolicy.parseRetryAfter(Optional.empty()));
+    }
+
+    @Test
+    void retryableResponseCodes() {
+        RetryPolicy policy = RetryPolicy.defaultPolicy();
+        assertAll("Checking which response codes are retried",
+                () -> assertTrue(policy.isRetryable(429)),
+                () -> assertTrue(policy.isRetryable(503)),
+                () -> assertFalse(policy.isRetryable(403)),
+                () -> assertFalse(policy.isRetryable(404)));
+    }
+
+    @Test
+    void failsAfterMaxRetries() throws Exception {
+        RetryPolicy.Job job = new RetryPolicy(1, Duration.ZERO, Duration.ZERO, 0, Duration.ofMinutes(1)).startJob();
+        job.awaitRetry(0, Optional.empty(), "Too many queries 429");
+        assertThrows(ConnectException.class, () -> job.awaitRetry(1, Optional.empty(), "Too many queries 429"));
+    }
+
+    @Test
+    void failsWhenBudgetIsUsedUp() {
+        RetryPolicy.Job job = new RetryPolicy(5, Duration.ofSeconds(1), Duration.ofSeconds(1), 0, Duration.ofMillis(100)).startJob();
+        IOException ioe = assertThrows(IOException.class, () -> job.awaitRetry(0, Optional.empty(), "Timeout from server 503"));
+        assertFalse(ioe instanceof ConnectException);
+        assertEquals(0, job.getWaitedMillis());
+    }
+
+    @Test
+    void budgetOnlyCountsTheWaits() throws Exception {
+        RetryPolicy.Job job = new RetryPolicy(5, Duration.ofMillis(40), Duration.ofMillis(40), 0, Duration.ofMillis(100)).startJob();
+        Thread.sleep(150);
+        job.awaitRetry(0, Optional.empty(), "Timeout from server 503");
+        job.awaitRetry(0, Optional.empty(), "Timeout from server 503");
+        assertAll("Checking that only the waits are counted",
+                () -> assertEquals(80, job.getWaitedMillis()),
+                () -> assertThrows(IOException.class, () -> job.awaitRetry(0, Optional.empty(), "Timeout from server 503")));
+    }
+}
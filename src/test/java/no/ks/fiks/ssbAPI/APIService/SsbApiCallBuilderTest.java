@@ -0,0 +1,95 @@
+package no.ks.fiks.ssbAPI.APIService;
+
+import no.ks.fiks.ssbAPI.klassApi.SsbKlass;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SsbApiCallBuilderTest {
+
+    @Test
+    void buildMakesNoNetworkCalls() {
+        SsbRateLimiter limiter = new SsbRateLimiter(30, Duration.ofSeconds(60));
+        SsbApiCall ssbApiCall = SsbApiCall.builder()
+                .table("11816")
+                .numberOfYears(5)
+                .classifications("131", "104", "214", "231", "127")
+                .rateLimiter(limiter)
+                .maxConcurrentQueries(2)
+                .build();
+        assertAll("Checking that only the configuration was recorded",
+                () -> assertEquals(0, limiter.getAcquiredPermits()),
+                () -> assertSame(limiter, ssbApiCall.getRateLimiter()),
+                () -> assertEquals(2, ssbApiCall.getMaxConcurrentQueries()));
+    }
+
+    @Test
+    void klassRefreshDoesNotLoadMetadata() throws Exception {
+        int from = Calendar.getInstance().get(Calendar.YEAR) - 5;
+        SsbKlass codes = new SsbKlass();
+        codes.convertStringToJson(List.of("{\"codes\": []}"));
+        SsbApiCall.getKlassCache().put("https://data.ssb.no/api/klass/v1/classifications/131/codes.json?from=" + from
+                + "-01-01&to=2059-01-01&includeFuture=true", codes);
+        SsbRateLimiter limiter = new SsbRateLimiter(30, Duration.ofSeconds(60));
+        SsbApiCall ssbApiCall = SsbApiCall.builder()
+                .table("99999")
+                .numberOfYears(5)
+                .classifications("131")
+                .rateLimiter(limiter)
+                .diskCache(null)
+                .build();
+        assertAll("Checking that only the cached classification was used",
+                () -> assertNotNull(ssbApiCall.klassApiCallAsync().get(10, TimeUnit.SECONDS)),
+                () -> assertEquals(0, limiter.getAcquiredPermits()));
+    }
+
+    @Test
+    void selectionsCanBeChangedWhileMetadataLoads() throws Exception {
+        CountDownLatch requested = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        SsbHttpTransport transport = new SsbHttpTransport(Duration.ofSeconds(1), Duration.ofSeconds(1)) {
+            @Override
+            public SsbHttpResponse get(URI uri, Map<String, String> headers) throws IOException {
+                requested.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ie) {
+                    throw new InterruptedIOException();
+                }
+                throw new IOException("Not connected");
+            }
+        };
+        SsbApiCall ssbApiCall = SsbApiCall.builder()
+                .table("99998")
+                .transport(transport)
+                .retryPolicy(RetryPolicy.noRetries())
+                .diskCache(null)
+                .build();
+        CompletableFuture<List<String>> table = ssbApiCall.tableApiCallAsync();
+        try {
+            assertTrue(requested.await(10, TimeUnit.SECONDS));
+            CompletableFuture.runAsync(() -> ssbApiCall.setSelection("Tid", QuerySelection.top(1))).get(10, TimeUnit.SECONDS);
+            assertEquals(QuerySelection.top(1).getFilter(), ssbApiCall.getSelections().get("Tid").getFilter());
+        } finally {
+            release.countDown();
+        }
+        assertThrows(ExecutionException.class, () -> table.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void invalidConcurrencyIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> SsbApiCall.builder().maxConcurrentQueries(0));
+    }
+}
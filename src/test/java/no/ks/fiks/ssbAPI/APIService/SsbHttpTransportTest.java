@@ -0,0 +1,93 @@
+package no.ks.fiks.ssbAPI.APIService;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SsbHttpTransportTest {
+
+    private static final String BODY = "{\"title\": \"11816: Utvalgte nøkkeltall for samferdsel\"}";
+
+    private HttpServer server;
+    private URI baseUri;
+    private final AtomicReference<String> acceptEncoding = new AtomicReference<>();
+    private final AtomicReference<String> requestBody = new AtomicReference<>();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/gzip", exchange -> {
+            acceptEncoding.set(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+            requestBody.set(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(BODY.getBytes(StandardCharsets.UTF_8));
+            }
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, compressed.size());
+            try (OutputStream os = exchange.getResponseBody()) {
+                compressed.writeTo(os);
+            }
+        });
+        server.createContext("/plain", exchange -> {
+            byte[] bytes = BODY.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(429, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        });
+        server.start();
+        baseUri = URI.create("http://localhost:" + server.getAddress().getPort());
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void gzipResponseIsDecompressed() throws IOException {
+        try (SsbHttpResponse response = SsbHttpTransport.getDefault().get(baseUri.resolve("/gzip"))) {
+            assertAll("Checking that gzip is requested and decompressed",
+                    () -> assertEquals(200, response.getStatusCode()),
+                    () -> assertEquals("gzip", acceptEncoding.get()),
+                    () -> assertEquals(BODY, response.bodyAsString()));
+        }
+    }
+
+    @Test
+    void postSendsBody() throws IOException {
+        try (SsbHttpResponse response = SsbHttpTransport.getDefault().post(baseUri.resolve("/gzip"), "{\"query\": []}")) {
+            assertEquals(BODY, response.bodyAsString());
+            assertEquals("{\"query\": []}", requestBody.get());
+        }
+    }
+
+    @Test
+    void errorStatusIsReturned() throws IOException {
+        try (SsbHttpResponse response = SsbHttpTransport.getDefault().get(baseUri.resolve("/plain"))) {
+            assertEquals(429, response.getStatusCode());
+            assertEquals(BODY, response.bodyAsString());
+        }
+    }
+
+    @Test
+    void timeoutsAreConfigurable() {
+        SsbHttpTransport transport = new SsbHttpTransport(Duration.ofSeconds(1), Duration.ofSeconds(5));
+        assertEquals(Duration.ofSeconds(1), transport.getConnectTimeout());
+        assertEquals(Duration.ofSeconds(5), transport.getResponseTimeout());
+    }
+}
@@ -0,0 +1,47 @@
+package no.ks.fiks.ssbAPI.APIService;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SsbRateLimiterTest {
+
+    @Test
+    void burstUpToPermitsWithoutWaiting() throws InterruptedException {
+        SsbRateLimiter limiter = new SsbRateLimiter(3, Duration.ofSeconds(60));
+        for (int i = 0; i < 3; i++)
+            limiter.acquire();
+        assertAll("Checking that the whole budget can be used at once",
+                () -> assertEquals(0, limiter.getAvailablePermits()),
+                () -> assertEquals(3, limiter.getAcquiredPermits()),
+                () -> assertTrue(limiter.getMillisUntilNextPermit() > 0));
+    }
+
+    @Test
+    void waitsUntilPermitIsPutBack() throws InterruptedException {
+        SsbRateLimiter limiter = new SsbRateLimiter(2, Duration.ofMillis(200));
+        long start = System.nanoTime();
+        limiter.acquire();
+        limiter.acquire();
+        limiter.acquire();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(elapsedMillis >= 190, "Third permit came after " + elapsedMillis + " ms");
+        assertTrue(limiter.getLastWaitMillis() > 0);
+        assertEquals(limiter.getLastWaitMillis(), limiter.getTotalWaitMillis());
+    }
+
+    @Test
+    void sharedLimiterUsesApiBudget() {
+        assertSame(SsbRateLimiter.getShared(), SsbRateLimiter.getShared());
+        assertEquals(30, SsbRateLimiter.getShared().getPermits());
+        assertEquals(Duration.ofSeconds(60), SsbRateLimiter.getShared().getWindow());
+    }
+
+    @Test
+    void invalidConfigurationIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new SsbRateLimiter(0, Duration.ofSeconds(1)));
+        assertThrows(IllegalArgumentException.class, () -> new SsbRateLimiter(1, Duration.ZERO));
+    }
+}
@@ -0,0 +1,60 @@
+package no.ks.fiks.ssbAPI.APIService;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TableQueryExecutorTest {
+
+    @Test
+    void resultsAreInQueryOrder() throws IOException {
+        TableQueryExecutor executor = new TableQueryExecutor(4);
+        List<String> queries = List.of("40", "10", "30", "0", "20");
+        List<String> results = executor.execute(queries, query -> {
+            try {
+                Thread.sleep(Long.parseLong(query));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "result" + query;
+        });
+        assertEquals(List.of("result40", "result10", "result30", "result0", "result20"), results);
+    }
+
+    @Test
+    void queriesRunConcurrently() throws IOException {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        new TableQueryExecutor(3).execute(List.of("a", "b", "c", "d", "e", "f"), query -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            return query;
+        });
+        assertTrue(maxRunning.get() > 1);
+        assertTrue(maxRunning.get() <= 3);
+    }
+
+    @Test
+    void failedQueryIsRethrown() {
+        IOException thrown = assertThrows(IOException.class, () -> new TableQueryExecutor(2).execute(List.of("ok", "fail"), query -> {
+            if (query.equals("fail"))
+                throw new IOException("Query is too big");
+            return query;
+        }));
+        assertEquals("Query is too big", thrown.getMessage());
+    }
+
+    @Test
+    void concurrencyMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new TableQueryExecutor(0));
+    }
+}
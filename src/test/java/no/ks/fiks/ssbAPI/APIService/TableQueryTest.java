@@ -0,0 +1,60 @@
+package no.ks.fiks.ssbAPI.APIService;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import no.ks.fiks.ssbAPI.metadataApi.SsbMetadataVariables;
+import no.ks.fiks.ssbAPI.tableApi.ResponseFormat;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TableQueryTest {
+
+    private static SsbMetadataVariables variable(String code, List<String> values) {
+        return new SsbMetadataVariables(code, code, values, values);
+    }
+
+    @Test
+    void queryIsValidJsonWithEveryVariable() throws IOException {
+        SsbMetadataVariables regions = variable("Region", List.of("3001", "3002", "3003"));
+        TableQuery query = new TableQuery(List.of(regions.slice(0, 2), variable("Tid", List.of("2020"))), Map.of());
+        JsonNode json = new ObjectMapper().readTree(query.toBytes());
+        assertAll("Checking the query",
+                () -> assertEquals(2, json.get("query").size()),
+                () -> assertEquals("Region", json.get("query").get(0).get("code").asText()),
+                () -> assertEquals("item", json.get("query").get(0).get("selection").get("filter").asText()),
+                () -> assertEquals("3002", json.get("query").get(0).get("selection").get("values").get(1).asText()),
+                () -> assertEquals("all", json.get("query").get(1).get("selection").get("filter").asText()),
+                () -> assertEquals("json-stat2", json.get("response").get("format").asText()));
+    }
+
+    @Test
+    void valuesAreEscaped() throws IOException {
+        SsbMetadataVariables odd = variable("Odd", List.of("a\"b", "c\\d", "e\nf", "g"));
+        TableQuery query = new TableQuery(List.of(odd.slice(0, 3)), Map.of());
+        JsonNode values = new ObjectMapper().readTree(query.toBytes()).get("query").get(0).get("selection").get("values");
+        assertAll("Checking the escaped values",
+                () -> assertEquals("a\"b", values.get(0).asText()),
+                () -> assertEquals("c\\d", values.get(1).asText()),
+                () -> assertEquals("e\nf", values.get(2).asText()));
+    }
+
+    @Test
+    void emptyVariablesAreLeftOut() throws IOException {
+        SsbMetadataVariables none = variable("None", List.of("1"));
+        none.filterValuesAndValueTexts("None", List.of("NONE"));
+        TableQuery query = new TableQuery(List.of(none, variable("Tid", List.of("2020"))), Map.of());
+        JsonNode json = new ObjectMapper().readTree(query.toString());
+        assertEquals(1, json.get("query").size());
+    }
+
+    @Test
+    void responseFormatIsWritten() throws IOException {
+        TableQuery query = new TableQuery(List.of(variable("Tid", List.of("2020"))), Map.of(), ResponseFormat.CSV2);
+        assertEquals("csv2", new ObjectMapper().readTree(query.toBytes()).get("response").get("format").asText());
+    }
+}
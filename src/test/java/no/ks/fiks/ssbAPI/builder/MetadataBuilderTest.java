@@ -0,0 +1,337 @@
+package no.ks.fiks.ssbAPI.builder;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import no.ks.fiks.ssbAPI.klassApi.SsbKlass;
+import no.ks.fiks.ssbAPI.metadataApi.SsbMetadata;
+import no.ks.fiks.ssbAPI.metadataApi.SsbMetadataVariables;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetadataBuilderTest {
+
+    private static final String KOMMUNER = "{\"codes\": ["
+            + "{\"code\": \"EAK\", \"name\": \"Landet\", \"validFromInRequestedRange\": \"2010-01-01\", \"validToInRequestedRange\": \"2059-01-01\"},"
+            + "{\"code\": \"0101\", \"name\": \"Halden\", \"validFromInRequestedRange\": \"2010-01-01\", \"validToInRequestedRange\": \"2020-01-01\"},"
+            + "{\"code\": \"3001\", \"name\": \"Halden\", \"validFromInRequestedRange\": \"2020-01-01\", \"validToInRequestedRange\": \"2059-01-01\"}]}";
+
+    static String variable(String code, String text, List<String> values) {
+        String list = "[\"" + String.join("\", \"", values) + "\"]";
+        return "{\"code\": \"" + code + "\", \"text\": \"" + text + "\", \"values\": " + list + ", \"valueTexts\": " + list + "}";
+    }
+
+    static List<String> codes(String prefix, int count) {
+        List<String> codes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            codes.add(prefix + i);
+        }
+        return codes;
+    }
+
+    static List<String> years(int from, int to) {
+        List<String> years = new ArrayList<>();
+        for (int year = from; year <= to; year++) {
+            years.add(String.valueOf(year));
+        }
+        return years;
+    }
+
+    private static SsbKlass klass() throws JsonProcessingException {
+        SsbKlass klass = new SsbKlass();
+        klass.convertStringToJson(List.of(KOMMUNER));
+        return klass;
+    }
+
+    private static List<TableChunk> build(String... variables) throws JsonProcessingException {
+        return build(klass(), variables);
+    }
+
+    private static List<TableChunk> buildUnfiltered(String... variables) throws JsonProcessingException {
+        return build(null, variables);
+    }
+
+    private static List<TableChunk> build(SsbKlass klass, String... variables) throws JsonProcessingException {
+        SsbMetadata metadata = new SsbMetadata("{\"title\": \"Test\", \"variables\": [" + String.join(",", variables) + "]}");
+        MetadataBuilder builder = new MetadataBuilder(metadata, klass);
+        builder.buildMetadata();
+        return builder.getChunks();
+    }
+
+    private static long cells(TableChunk chunk) {
+        long cells = 1;
+        for (SsbMetadataVariables variable : chunk.getVariables()) {
+            cells *= variable.size();
+        }
+        return cells;
+    }
+
+    private static Set<String> regionYears(List<TableChunk> chunks) {
+        Set<String> pairs = new HashSet<>();
+        for (TableChunk chunk : chunks) {
+            for (String region : chunk.getVariables().get(0).getValues()) {
+                for (String year : chunk.getVariables().get(chunk.getVariables().size() - 1).getValues()) {
+                    assertTrue(pairs.add(region + "/" + year), "Queried twice: " + region + "/" + year);
+                }
+            }
+        }
+        return pairs;
+    }
+
+    @Test
+    void periodsWithTheSameRegionsShareOneQuery() throws JsonProcessingException {
+        List<TableChunk> chunks = build(
+                variable("KOKkommuneregion0000", "region", List.of("EAK", "0101", "3001")),
+                variable("ContentsCode", "statistikkvariabel", List.of("A", "B")),
+                variable("Tid", "år", years(2015, 2024)));
+        Set<String> pairs = regionYears(chunks);
+        assertAll("Checking the packed chunks",
+                () -> assertEquals(2, chunks.size()),
+                () -> assertEquals(20, pairs.size()),
+                () -> assertTrue(pairs.contains("0101/2019")),
+                () -> assertFalse(pairs.contains("0101/2020")),
+                () -> assertFalse(pairs.contains("3001/2019")));
+    }
+
+    @Test
+    void quartersOfAYearShareItsRegions() throws JsonProcessingException {
+        List<TableChunk> chunks = build(
+                variable("KOKkommuneregion0000", "region", List.of("EAK", "0101", "3001")),
+                variable("ContentsCode", "statistikkvariabel", List.of("A")),
+                variable("Tid", "kvartal", List.of("2019K3", "2019K4", "2020K1", "2020K2")));
+        Set<String> pairs = regionYears(chunks);
+        assertAll("Checking the quarterly chunks",
+                () -> assertEquals(2, chunks.size()),
+                () -> assertEquals(8, pairs.size()),
+                () -> assertTrue(pairs.contains("0101/2019K4")),
+                () -> assertFalse(pairs.contains("0101/2020K1")),
+                () -> assertTrue(pairs.contains("3001/2020K1")));
+    }
+
+    @Test
+    void bigGroupsAreSplitUnderTheCellLimit() throws JsonProcessingException {
+        List<TableChunk> chunks = build(
+                variable("KOKkommuneregion0000", "region", List.of("EAK", "3001")),
+                variable("KOKfunksjon0000", "funksjon", codes("F", 500)),
+                variable("KOKart0000", "art", codes("A", 500)),
+                variable("Tid", "år", years(2020, 2023)));
+        assertAll("Checking the split chunks",
+                () -> assertEquals(8, regionYears(chunks).size()),
+                () -> assertTrue(chunks.stream().allMatch(chunk -> cells(chunk) <= MetadataBuilder.MAX_CELLS)),
+                () -> assertEquals(4, chunks.size()));
+    }
+
+    @Test
+    void blockSizeNeedsTheFewestQueries() {
+        assertArrayEquals(new int[]{10, 3}, MetadataBuilder.blockSize(10, 3, 1000, MetadataBuilder.MAX_CELLS));
+        assertArrayEquals(new int[]{1, 3}, MetadataBuilder.blockSize(4, 6, 250000, MetadataBuilder.MAX_CELLS));
+        assertArrayEquals(new int[]{1, 1}, MetadataBuilder.blockSize(2, 2, 1000000, MetadataBuilder.MAX_CELLS));
+    }
+
+    @Test
+    void unfilteredTablesAreSplitOnTheBestVariable() throws JsonProcessingException {
+        List<TableChunk> chunks = buildUnfiltered(
+                variable("ContentsCode", "statistikkvariabel", List.of("A", "B")),
+                variable("KOKfunksjon0000", "funksjon", codes("F", 500)),
+                variable("KOKart0000", "art", codes("A", 2000)));
+        Set<String> cells = new HashSet<>();
+        for (TableChunk chunk : chunks) {
+            for (String contents : chunk.getVariables().get(0).getValues())
+                for (String function : chunk.getVariables().get(1).getValues())
+                    for (String art : chunk.getVariables().get(2).getValues())
+                        assertTrue(cells.add(contents + function + art));
+        }
+        assertAll("Checking the split",
+                () -> assertEquals(3, chunks.size()),
+                () -> assertEquals(2000000, cells.size()),
+                () -> assertTrue(chunks.stream().allMatch(chunk -> cells(chunk) <= MetadataBuilder.MAX_CELLS)));
+    }
+
+    @Test
+    void smallUnfilteredTablesAreOneQuery() throws JsonProcessingException {
+        List<TableChunk> chunks = buildUnfiltered(
+                variable("ContentsCode", "statistikkvariabel", List.of("A", "B")),
+                variable("Tid", "år", years(2015, 2024)));
+        assertEquals(1, chunks.size());
+    }
+
+    @Test
+    void givenCellLimitIsUsedForPlanning() throws JsonProcessingException {
+        SsbMetadata metadata = new SsbMetadata("{\"title\": \"Test\", \"variables\": ["
+                + variable("ContentsCode", "statistikkvariabel", List.of("A", "B")) + ","
+                + variable("Tid", "år", years(2015, 2024)) + "]}");
+        MetadataBuilder builder = new MetadataBuilder(metadata, null, 10);
+        builder.buildMetadata();
+        assertAll("Checking the chunks under the given limit",
+                () -> assertEquals(2, builder.getChunks().size()),
+                () -> assertTrue(builder.getChunks().stream().allMatch(chunk -> cells(chunk) <= 10)),
+                () -> assertThrows(IllegalArgumentException.class, () -> new MetadataBuilder(metadata, null, 0)));
+    }
+
+    @Test
+    void planPinsVariablesWhenNoSingleVariableFits() {
+        MetadataBuilder.Split notPinned = MetadataBuilder.planSplit(new long[]{3, 1000, 1000}, MetadataBuilder.MAX_CELLS);
+        MetadataBuilder.Split split = MetadataBuilder.planSplit(new long[]{1000, 1000, 1000}, MetadataBuilder.MAX_CELLS);
+        assertAll("Checking the plans",
+                () -> assertArrayEquals(new boolean[]{false, false, false}, notPinned.pinned),
+                () -> assertEquals(1, notPinned.partial),
+                () -> assertEquals(4, notPinned.queries),
+                () -> assertArrayEquals(new boolean[]{true, false, false}, split.pinned),
+                () -> assertEquals(1, split.partial),
+                () -> assertEquals(750, split.block),
+                () -> assertEquals(2000, split.queries));
+    }
+
+    @Test
+    void planningA12367SizedTableCoversEveryCell() throws JsonProcessingException {
+        List<TableChunk> chunks = build(kokKlass(), kokVariables());
+        long cells = 0;
+        for (TableChunk chunk : chunks) {
+            cells += cells(chunk);
+        }
+        long expected = (770L * 5 + 513L * 5) * 80 * 90;
+        long queriedCells = cells;
+        assertAll("Checking the plan of a 12367-sized table",
+                () -> assertEquals(expected, queriedCells),
+                () -> assertTrue(chunks.stream().allMatch(chunk -> cells(chunk) <= MetadataBuilder.MAX_CELLS)));
+    }
+
+    /**
+     * Times the planner next to {@link #checkSizePlan(SsbMetadata, SsbKlass)}, the per-value checkSize and indexOf scans
+     * it replaced, on the same 12367-sized table. The median of each is published through the TestReporter. The times
+     * depend on the machine, so they are reported and not asserted.
+     */
+    @Test
+    void planningA12367SizedTableBenchmark(TestReporter reporter) throws JsonProcessingException {
+        SsbKlass klass = kokKlass();
+        SsbMetadata metadata = new SsbMetadata("{\"title\": \"Test\", \"variables\": [" + String.join(",", kokVariables()) + "]}");
+
+        long[] chunks = new long[2];
+        double checkSizeMillis = medianMillis(() -> chunks[0] = checkSizePlan(metadata, klass));
+        double plannerMillis = medianMillis(() -> {
+            MetadataBuilder builder = new MetadataBuilder(new SsbMetadata(metadata), klass);
+            builder.buildMetadata();
+            chunks[1] = builder.getChunks().size();
+        });
+        reporter.publishEntry("checkSizePlannerMillis", String.format("%.3f", checkSizeMillis));
+        reporter.publishEntry("plannerMillis", String.format("%.3f", plannerMillis));
+        reporter.publishEntry("speedup", String.format("%.0fx", checkSizeMillis / Math.max(plannerMillis, 0.001)));
+        assertAll("Checking that both planners planned the table",
+                () -> assertTrue(chunks[0] > 0),
+                () -> assertTrue(chunks[1] > 0));
+    }
+
+    /**
+     * The 12367 table "Kommunenes regnskap" in size: 770 regions, where every third ended in 2020, 80 functions, 90
+     * arts and 10 years.
+     */
+    private static String[] kokVariables() {
+        return new String[]{
+                variable("KOKkommuneregion0000", "region", kokRegions()),
+                variable("KOKfunksjon0000", "funksjon", codes("F", 80)),
+                variable("KOKart0000", "art", codes("A", 90)),
+                variable("ContentsCode", "statistikkvariabel", List.of("Belop")),
+                variable("Tid", "år", years(2015, 2024))};
+    }
+
+    private static List<String> kokRegions() {
+        List<String> regions = new ArrayList<>();
+        for (int i = 0; i < 770; i++) {
+            regions.add(String.valueOf(3000 + i));
+        }
+        return regions;
+    }
+
+    private static SsbKlass kokKlass() throws JsonProcessingException {
+        List<String> regions = kokRegions();
+        StringBuilder codes = new StringBuilder("{\"codes\": [");
+        for (int i = 0; i < regions.size(); i++) {
+            String region = regions.get(i);
+            String validTo = i % 3 == 0 ? "2020-01-01" : "2059-01-01";
+            codes.append(i == 0 ? "" : ",").append("{\"code\": \"").append(region).append("\", \"name\": \"R").append(region)
+                    .append("\", \"validFromInRequestedRange\": \"2010-01-01\", \"validToInRequestedRange\": \"").append(validTo).append("\"}");
+        }
+        SsbKlass klass = new SsbKlass();
+        klass.convertStringToJson(List.of(codes.append("]}").toString()));
+        return klass;
+    }
+
+    /**
+     * Runs the planning for a second to let the JIT compile it, then times it.
+     *
+     * @param planning This is the planning to time.
+     * @return Returns the median time of the timed runs, in milliseconds.
+     */
+    private static double medianMillis(Runnable planning) {
+        long warmedUp = System.nanoTime() + 1_000_000_000L;
+        while (System.nanoTime() < warmedUp) {
+            planning.run();
+        }
+        long[] nanos = new long[25];
+        for (int i = 0; i < nanos.length; i++) {
+            long start = System.nanoTime();
+            planning.run();
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        return nanos[nanos.length / 2] / 1_000_000.0;
+    }
+
+    /**
+     * The cell accounting of the planner before the running product: for each year, every valid region is added after
+     * multiplying every variable in checkSize, and is looked up again with indexOf. The values are kept in plain lists,
+     * like the variables were then. Only the number of queries is counted, the chunks aren't built.
+     *
+     * @return Returns the number of queries the plan has.
+     */
+    private static long checkSizePlan(SsbMetadata metadata, SsbKlass klass) {
+        List<String> codes = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        List<List<String>> values = new ArrayList<>();
+        for (SsbMetadataVariables variable : metadata.getVariables()) {
+            codes.add(variable.getCode());
+            texts.add(variable.getText());
+            values.add(variable.getValues());
+        }
+        List<String> tidValues = values.get(codes.indexOf("Tid"));
+        List<String> regionValues = values.get(texts.indexOf("region"));
+        long queries = 0;
+        for (String sTid : tidValues) {
+            int tid = Integer.parseInt(sTid);
+            List<String> chunk = new ArrayList<>();
+            for (String region : regionValues) {
+                if (!klass.getKlassCodesResultJson().containsKey(region)
+                        || tid < klass.getKlassCodesResultJson().get(region).getFromYear()
+                        || tid >= klass.getKlassCodesResultJson().get(region).getToYear())
+                    continue;
+                if (checkSize(codes, texts, values, chunk.size()) >= 750000) {
+                    queries++;
+                    chunk = new ArrayList<>();
+                }
+                chunk.add(regionValues.get(regionValues.indexOf(region)));
+            }
+            if (!chunk.isEmpty())
+                queries++;
+        }
+        return queries;
+    }
+
+    private static int checkSize(List<String> codes, List<String> texts, List<List<String>> values, int regions) {
+        int count = 1;
+        for (int i = 0; i < codes.size(); i++) {
+            if (codes.get(i).equalsIgnoreCase("Tid"))
+                count = count * 1;
+            else if (texts.get(i).equalsIgnoreCase("region"))
+                count = count * regions;
+            else
+                count = count * values.get(i).size();
+        }
+        return count;
+    }
+}
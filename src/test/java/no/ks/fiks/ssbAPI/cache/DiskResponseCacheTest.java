@@ -0,0 +1,52 @@
+package no.ks.fiks.ssbAPI.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiskResponseCacheTest {
+
+    private static final String URL = "https://data.ssb.no/api/klass/v1/classifications/131/codes.json?from=2016-01-01&to=2059-01-01&includeFuture=true";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void storedResponseIsReadBack() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(directory, false);
+        cache.put(URL, "{\"codes\": []}", Optional.of("\"abc\""), Optional.of("Mon, 04 Oct 2021 08:00:00 GMT"));
+
+        DiskResponseCache.CachedResponse cached = new DiskResponseCache(directory, true).get(URL).orElseThrow();
+        assertAll("Checking the cached response in a new cache object",
+                () -> assertEquals("{\"codes\": []}", cached.readBody()),
+                () -> assertEquals(Optional.of("\"abc\""), cached.getEtag()),
+                () -> assertEquals(Map.of("If-None-Match", "\"abc\"", "If-Modified-Since", "Mon, 04 Oct 2021 08:00:00 GMT"),
+                        cached.getConditionalHeaders()));
+    }
+
+    @Test
+    void defaultIsResolvedOnce() {
+        assertSame(DiskResponseCache.getDefault(), DiskResponseCache.getDefault());
+    }
+
+    @Test
+    void missingResponseIsEmpty() throws IOException {
+        assertEquals(Optional.empty(), new DiskResponseCache(directory, false).get(URL));
+    }
+
+    @Test
+    void responseWithoutValidatorsHasNoConditionalHeaders() throws IOException {
+        DiskResponseCache cache = new DiskResponseCache(directory, false);
+        cache.put(URL, "first", Optional.empty(), Optional.empty());
+        cache.put(URL, "second", Optional.empty(), Optional.empty());
+        DiskResponseCache.CachedResponse cached = cache.get(URL).orElseThrow();
+        assertEquals("second", cached.readBody());
+        assertTrue(cached.getConditionalHeaders().isEmpty());
+    }
+}
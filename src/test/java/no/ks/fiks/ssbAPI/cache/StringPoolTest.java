@@ -0,0 +1,30 @@
+package no.ks.fiks.ssbAPI.cache;
+
+import no.ks.fiks.ssbAPI.metadataApi.SsbMetadataVariables;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StringPoolTest {
+
+    @Test
+    void equalStringsAreTheSameObject() {
+        String first = new String("3001");
+        String second = new String("3001");
+        assertSame(StringPool.intern(first), StringPool.intern(second));
+        assertNull(StringPool.intern(null));
+    }
+
+    @Test
+    void variablesFromDifferentTablesShareStrings() {
+        SsbMetadataVariables first = new SsbMetadataVariables("Region", "region",
+                List.of(new String("3001")), List.of(new String("Halden")));
+        SsbMetadataVariables second = new SsbMetadataVariables("KOKkommuneregion0000", "region",
+                List.of(new String("3001")), List.of(new String("Halden")));
+        assertAll("Checking that the values and texts are shared",
+                () -> assertSame(first.getValue(0), second.getValue(0)),
+                () -> assertSame(first.getValueText(0), second.getValueText(0)));
+    }
+}
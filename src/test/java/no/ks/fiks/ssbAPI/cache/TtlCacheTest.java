@@ -0,0 +1,54 @@
+package no.ks.fiks.ssbAPI.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TtlCacheTest {
+
+    @Test
+    void getReturnsPutValue() {
+        TtlCache<String, String> cache = new TtlCache<>(10, Duration.ofMinutes(1));
+        cache.put("11816", "metadata");
+        assertAll("Checking hits and misses",
+                () -> assertEquals(Optional.of("metadata"), cache.get("11816")),
+                () -> assertEquals(Optional.empty(), cache.get("12367")),
+                () -> assertEquals(1, cache.getHits()),
+                () -> assertEquals(1, cache.getMisses()));
+    }
+
+    @Test
+    void entriesExpire() throws InterruptedException {
+        TtlCache<String, String> cache = new TtlCache<>(10, Duration.ofMillis(50));
+        cache.put("11816", "metadata");
+        Thread.sleep(100);
+        assertEquals(Optional.empty(), cache.get("11816"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvicted() {
+        TtlCache<String, String> cache = new TtlCache<>(2, Duration.ofMinutes(1));
+        cache.put("131", "a");
+        cache.put("104", "b");
+        cache.get("131");
+        cache.put("214", "c");
+        assertAll("Checking that 104 was evicted",
+                () -> assertEquals(2, cache.size()),
+                () -> assertTrue(cache.get("131").isPresent()),
+                () -> assertTrue(cache.get("104").isEmpty()),
+                () -> assertTrue(cache.get("214").isPresent()));
+    }
+
+    @Test
+    void zeroSizeDisablesCache() {
+        TtlCache<String, String> cache = new TtlCache<>(2, Duration.ofMinutes(1));
+        cache.put("131", "a");
+        cache.setMaxEntries(0);
+        cache.put("104", "b");
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,93 @@
+package no.ks.fiks.ssbAPI.klassApi;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SsbKlassTest {
+
+    private static final String KOMMUNER_2020 = "{\"codes\": ["
+            + "{\"code\": \"3001\", \"name\": \"Halden\", \"validFromInRequestedRange\": \"2020-01-01\", \"validToInRequestedRange\": \"2024-01-01\"},"
+            + "{\"code\": \"0101\", \"name\": \"Halden\", \"validFromInRequestedRange\": \"2016-01-01\", \"validToInRequestedRange\": \"2020-01-01\"}]}";
+    private static final String KOMMUNER_2024 = "{\"codes\": ["
+            + "{\"code\": \"3001\", \"name\": \"Halden\", \"validFromInRequestedRange\": \"2024-01-01\", \"validToInRequestedRange\": \"2059-01-01\"}]}";
+
+    @Test
+    void codesInSeveralListsAreWidened() throws JsonProcessingException {
+        SsbKlass klass = new SsbKlass();
+        klass.convertStringToJson(List.of(KOMMUNER_2020, KOMMUNER_2024));
+        SsbKlassCodes halden = klass.getKlassCodesResultJson().get("3001");
+        assertAll("Checking that 3001 is valid in both ranges",
+                () -> assertEquals(2, klass.getKlassCodesResultJson().size()),
+                () -> assertEquals(2020, halden.getFromYear()),
+                () -> assertEquals(2059, halden.getToYear()));
+    }
+
+    @Test
+    void mergeGivesSameResultAsConvertingTogether() throws JsonProcessingException {
+        SsbKlass first = new SsbKlass();
+        first.convertStringToJson(List.of(KOMMUNER_2020));
+        SsbKlass second = new SsbKlass();
+        second.convertStringToJson(List.of(KOMMUNER_2024));
+        SsbKlass merged = new SsbKlass();
+        merged.merge(first);
+        merged.merge(second);
+
+        assertAll("Checking the merged codes",
+                () -> assertEquals(List.of("3001", "0101"), List.copyOf(merged.getKlassCodesResultJson().keySet())),
+                () -> assertEquals(2020, merged.getKlassCodesResultJson().get("3001").getFromYear()),
+                () -> assertEquals(2059, merged.getKlassCodesResultJson().get("3001").getToYear()),
+                () -> assertEquals(2024, first.getKlassCodesResultJson().get("3001").getToYear()));
+    }
+
+    @Test
+    void copyIsIndependent() throws JsonProcessingException {
+        SsbKlass original = new SsbKlass();
+        original.convertStringToJson(List.of(KOMMUNER_2020));
+        SsbKlass copy = new SsbKlass(original);
+        copy.getKlassCodesResultJson().get("3001").setValidToInRequestedRange(LocalDate.parse("2030-01-01"));
+        assertEquals(2024, original.getKlassCodesResultJson().get("3001").getToYear());
+    }
+
+    @Test
+    void readCodesFromStream() throws IOException {
+        SsbKlass klass = new SsbKlass();
+        klass.readCodes(new ByteArrayInputStream(KOMMUNER_2020.getBytes(StandardCharsets.UTF_8)));
+        klass.readCodes(new ByteArrayInputStream(KOMMUNER_2024.getBytes(StandardCharsets.UTF_8)));
+        assertAll("Checking the streamed codes",
+                () -> assertEquals("Halden", klass.getKlassCodesResultJson().get("0101").getRegionName()),
+                () -> assertEquals(2059, klass.getKlassCodesResultJson().get("3001").getToYear()));
+    }
+
+    @Test
+    void validityIndexFollowsTheCodes() throws JsonProcessingException {
+        SsbKlass klass = new SsbKlass();
+        klass.convertStringToJson(List.of(KOMMUNER_2020));
+        KlassValidityIndex index = klass.getValidityIndex();
+        int halden = index.ordinalOf("3001");
+        int oldHalden = index.ordinalOf("0101");
+        assertAll("Checking the validity index",
+                () -> assertSame(index, klass.getValidityIndex()),
+                () -> assertEquals(-1, index.ordinalOf("9999")),
+                () -> assertEquals("3001", index.getCode(halden)),
+                () -> assertTrue(index.validIn(2019).get(oldHalden)),
+                () -> assertFalse(index.validIn(2019).get(halden)),
+                () -> assertTrue(index.validIn(2023).get(halden)),
+                () -> assertTrue(index.validIn(2024).isEmpty()));
+
+        SsbKlass later = new SsbKlass();
+        later.convertStringToJson(List.of(KOMMUNER_2024));
+        klass.merge(later);
+        assertAll("Checking that merging builds a new index",
+                () -> assertNotSame(index, klass.getValidityIndex()),
+                () -> assertTrue(klass.getValidityIndex().isValid(halden, 2024)),
+                () -> assertFalse(index.isValid(halden, 2024)));
+    }
+}
@@ -0,0 +1,47 @@
+package no.ks.fiks.ssbAPI.metadataApi;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SsbMetadataStreamTest {
+
+    private static final String METADATA = "{\"title\": \"11816: Utvalgte nøkkeltall\", \"variables\": ["
+            + "{\"code\": \"KOKkommuneregion0000\", \"text\": \"region\", \"values\": [\"EAK\", \"3001\", \"3002\"],"
+            + " \"valueTexts\": [\"Landet\", \"Halden\", \"Moss\"], \"elimination\": true, \"map\": \"kommuner\"},"
+            + "{\"code\": \"Tid\", \"text\": \"år\", \"values\": [\"2020\", \"2021\"], \"valueTexts\": [\"2020\", \"2021\"], \"time\": true}]}";
+
+    @Test
+    void streamAndStringGiveTheSameMetadata() throws IOException {
+        SsbMetadata fromStream = new SsbMetadata(new ByteArrayInputStream(METADATA.getBytes(StandardCharsets.UTF_8)));
+        SsbMetadata fromString = new SsbMetadata(METADATA);
+        SsbMetadataVariables region = fromStream.getVariables().get(0);
+        assertAll("Checking the streamed metadata",
+                () -> assertEquals("11816: Utvalgte nøkkeltall", fromStream.getTitle()),
+                () -> assertEquals(2, fromStream.getVariables().size()),
+                () -> assertEquals(List.of("EAK", "3001", "3002"), region.getValues()),
+                () -> assertEquals(List.of("Landet", "Halden", "Moss"), region.getValueTexts()),
+                () -> assertEquals("år", fromStream.getVariables().get(1).getText()),
+                () -> assertEquals(fromString.getVariables().get(0).getValues(), region.getValues()));
+    }
+
+    @Test
+    void streamWithFilter() throws IOException {
+        SsbMetadata metadata = new SsbMetadata(new ByteArrayInputStream(METADATA.getBytes(StandardCharsets.UTF_8)),
+                Map.of("KOKkommuneregion0000", List.of("3001")));
+        assertEquals(List.of("Halden"), metadata.getVariables().get(0).getValueTexts());
+    }
+
+    @Test
+    void mismatchingValueTextsFail() {
+        String broken = METADATA.replace("[\"Landet\", \"Halden\", \"Moss\"]", "[\"Landet\"]");
+        assertThrows(JsonProcessingException.class, () -> new SsbMetadata(broken));
+    }
+}
@@ -0,0 +1,67 @@
+package no.ks.fiks.ssbAPI.metadataApi;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SsbMetadataVariablesTest {
+
+    private static SsbMetadataVariables regions() {
+        return new SsbMetadataVariables("Region", "region",
+                List.of("EAK", "3001", "3002", "3003"), List.of("Landet", "Halden", "Moss", "Halden"));
+    }
+
+    @Test
+    void indexOfUsesPositionsInTheVariable() {
+        SsbMetadataVariables regions = regions();
+        BitSet selected = new BitSet();
+        selected.set(2);
+        selected.set(3);
+        SsbMetadataVariables slice = regions.slice(selected);
+        assertAll("Checking lookups in the variable and a slice",
+                () -> assertEquals(1, regions.indexOf("3001")),
+                () -> assertEquals(-1, regions.indexOf("9999")),
+                () -> assertEquals(List.of("3002", "3003"), slice.getValues()),
+                () -> assertEquals(List.of("Moss", "Halden"), slice.getValueTexts()),
+                () -> assertEquals(0, slice.indexOf("3002")),
+                () -> assertEquals(-1, slice.indexOf("3001")),
+                () -> assertEquals(4, regions.size()));
+    }
+
+    @Test
+    void removingKeepsValueTextsAligned() {
+        SsbMetadataVariables regions = regions();
+        regions.filterValuesAndValueTexts("!Region", List.of("3001"));
+        assertAll("Checking that only the text of 3001 is removed",
+                () -> assertEquals(List.of("EAK", "3002", "3003"), regions.getValues()),
+                () -> assertEquals(List.of("Landet", "Moss", "Halden"), regions.getValueTexts()));
+    }
+
+    @Test
+    void keepingUsesTheFilterOrder() {
+        SsbMetadataVariables regions = regions();
+        SsbMetadataVariables copy = new SsbMetadataVariables(regions);
+        copy.filterValuesAndValueTexts("Region", List.of("3002", "EAK"));
+        assertAll("Checking the filtered copy",
+                () -> assertEquals(List.of("3002", "EAK"), copy.getValues()),
+                () -> assertEquals(List.of("Moss", "Landet"), copy.getValueTexts()),
+                () -> assertEquals(4, copy.getLargestValue()),
+                () -> assertEquals(4, regions.size()));
+        assertThrows(IllegalArgumentException.class, () -> copy.filterValuesAndValueTexts("Region", List.of("9999")));
+    }
+
+    @Test
+    void gettersReturnMutableCopies() {
+        SsbMetadataVariables regions = regions();
+        List<String> values = regions.getValues();
+        values.remove("EAK");
+        regions.getValueTexts().add("Sarpsborg");
+        assertAll("Checking that the variable doesn't change",
+                () -> assertEquals(List.of("3001", "3002", "3003"), values),
+                () -> assertEquals(List.of("EAK", "3001", "3002", "3003"), regions.getValues()),
+                () -> assertEquals(4, regions.getValueTexts().size()));
+    }
+}
@@ -0,0 +1,56 @@
+package no.ks.fiks.ssbAPI.metadataApi;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValueFilterTest {
+
+    private static SsbMetadataVariables variable(String code, List<String> values) {
+        return new SsbMetadataVariables(code, code, values, values);
+    }
+
+    @Test
+    void prefixWildcardAndRange() {
+        SsbMetadataVariables regions = variable("Region", List.of("EAK", "0101", "3001", "3002", "3101", "K3001"));
+        SsbMetadataVariables quarters = variable("Tid", List.of("2019K4", "2020K1", "2020K2", "2020K3", "2021K1"));
+        SsbMetadataVariables years = variable("Tid", List.of("998", "999", "2015", "2020"));
+        assertAll("Checking the pattern entries",
+                () -> assertArrayEquals(new int[]{2, 3}, ValueFilter.compile(List.of("30*")).select(regions)),
+                () -> assertArrayEquals(new int[]{2, 4}, ValueFilter.compile(List.of("3?01")).select(regions)),
+                () -> assertArrayEquals(new int[]{1, 2, 3}, ValueFilter.compile(List.of("2020K1..2020K3")).select(quarters)),
+                () -> assertArrayEquals(new int[]{1, 2}, ValueFilter.compile(List.of("999..2015")).select(years)),
+                () -> assertEquals(6, ValueFilter.compile(List.of("*")).select(regions).length));
+    }
+
+    @Test
+    void selectKeepsFilterOrderWithoutDuplicates() {
+        SsbMetadataVariables regions = variable("Region", List.of("EAK", "3001", "3002", "3003"));
+        assertArrayEquals(new int[]{3, 1, 2}, ValueFilter.compile(List.of("3003", "30*", "3001")).select(regions));
+    }
+
+    @Test
+    void removeWithPatterns() {
+        SsbMetadataVariables regions = variable("Region", new ArrayList<>(List.of("EAK", "3001", "3002", "5001")));
+        regions.filterValuesAndValueTexts("!Region", List.of("30*", "9999"));
+        assertEquals(List.of("EAK", "5001"), regions.getValues());
+    }
+
+    @Test
+    void largeFilterIsLinear() {
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            values.add(String.format("%06d", i));
+        }
+        SsbMetadataVariables regions = variable("Region", values);
+        List<String> filter = values.subList(0, 50000);
+        long start = System.nanoTime();
+        regions.filterValuesAndValueTexts("Region", filter);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        assertEquals(50000, regions.size());
+        assertTrue(millis < 1000, "Filtering took " + millis + " ms");
+    }
+}
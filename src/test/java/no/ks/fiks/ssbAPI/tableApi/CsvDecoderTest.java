@@ -0,0 +1,58 @@
+package no.ks.fiks.ssbAPI.tableApi;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CsvDecoderTest {
+
+    private static SsbTableCube decode(String csv) throws IOException {
+        return TableFixtures.decode(ResponseFormat.CSV, TableFixtures.body(csv), new SsbTableCube(TableFixtures.dimensions()));
+    }
+
+    @Test
+    void decodesHeadingColumns() throws IOException {
+        SsbTableCube cube = decode("\"region\",\"Innbyggere 2020\",\"Innbyggere 2021\",\"Innbyggere 2022\"\r\n"
+                + "\"3001 Halden\",1,2.5,\"..\"\r\n"
+                + "\"3002 Moss\",4,5,6\r\n");
+        assertAll("Checking the decoded cube",
+                () -> assertEquals(2.5, cube.getValue(cube.indexOf("3001", "2021"))),
+                () -> assertEquals(6, cube.getValue(cube.indexOf("3002", "2022"))),
+                () -> assertTrue(cube.isMissing(cube.indexOf("3001", "2022"))),
+                () -> assertEquals(1, cube.getMissingCount()));
+    }
+
+    @Test
+    void decodesFlatRowsWithSemicolonsAndDecimalCommas() throws IOException {
+        SsbTableCube cube = decode("Region;Tid;value\n"
+                + "Moss;2021;\"1 234,5\"\n"
+                + "3001;2020;7\n");
+        assertAll("Checking the decoded cube",
+                () -> assertEquals(1234.5, cube.getValue(cube.indexOf("3002", "2021"))),
+                () -> assertEquals(7, cube.getValue(cube.indexOf("3001", "2020"))),
+                () -> assertEquals(4, cube.getMissingCount()));
+    }
+
+    @Test
+    void headingColumnsAreMatchedByLabel() throws IOException {
+        SsbTableCube cube = decode("\"Tid\",\"Moss\",\"3001 Halden\"\n"
+                + "2022,6,3\n"
+                + "2020,4,1\n"
+                + "2021,5,2.5\n");
+        assertAll("Checking that reordered heading values are put in query order",
+                () -> assertEquals(2.5, cube.getValue(cube.indexOf("3001", "2021"))),
+                () -> assertEquals(4, cube.getValue(cube.indexOf("3002", "2020"))),
+                () -> assertEquals(3, cube.getValue(cube.indexOf("3001", "2022"))),
+                () -> assertEquals(0, cube.getMissingCount()));
+    }
+
+    @Test
+    void mismatchingResultsFail() {
+        assertThrows(IOException.class, () -> decode("region,2020,2021\n3001,1,2\n"));
+        assertThrows(IOException.class, () -> decode("region,2020,2021,2022\n9999,1,2,3\n"));
+        assertThrows(IOException.class, () -> decode("region,2020,2021,2023\n3001,1,2,3\n"));
+        assertThrows(IOException.class, () -> decode("region,2020,2021,2021\n3001,1,2,3\n"));
+    }
+}
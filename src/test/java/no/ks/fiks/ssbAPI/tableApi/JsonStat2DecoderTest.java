@@ -0,0 +1,86 @@
+package no.ks.fiks.ssbAPI.tableApi;
+
+import no.ks.fiks.ssbAPI.metadataApi.SsbMetadataVariables;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static no.ks.fiks.ssbAPI.tableApi.TableFixtures.body;
+import static no.ks.fiks.ssbAPI.tableApi.TableFixtures.dimensions;
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonStat2DecoderTest {
+
+    private static final String RESULT = "{\"version\": \"2.0\", \"class\": \"dataset\", \"label\": \"Test\","
+            + "\"id\": [\"Region\", \"Tid\"], \"size\": [2, 3],"
+            + "\"dimension\": {"
+            + "\"Region\": {\"label\": \"region\", \"category\": {\"index\": {\"3001\": 0, \"3002\": 1}, \"label\": {\"3001\": \"Halden\", \"3002\": \"Moss\"}}},"
+            + "\"Tid\": {\"label\": \"år\", \"category\": {\"index\": {\"2020\": 0, \"2021\": 1, \"2022\": 2}}}},"
+            + "\"value\": [1, 2.5, null, 4, 5, 6], \"status\": {\"2\": \"..\"}}";
+
+    @Test
+    void decodesValuesAndMissingCells() throws IOException {
+        SsbTableCube cube = JsonStat2Decoder.decode(body(RESULT), dimensions());
+        assertAll("Checking the decoded cube",
+                () -> assertEquals(6, cube.getCellCount()),
+                () -> assertEquals(2.5, cube.getValue(cube.indexOf("3001", "2021"))),
+                () -> assertEquals(6, cube.getValue(cube.indexOf("3002", "2022"))),
+                () -> assertTrue(cube.isMissing(cube.indexOf("3001", "2022"))),
+                () -> assertEquals(1, cube.getMissingCount()));
+    }
+
+    @Test
+    void reordersCategoriesToQueryOrder() throws IOException {
+        String reordered = RESULT.replace("{\"3001\": 0, \"3002\": 1}", "[\"3002\", \"3001\"]");
+        SsbTableCube cube = JsonStat2Decoder.decode(body(reordered), dimensions());
+        assertAll("Checking that Region is put back in query order",
+                () -> assertEquals(4, cube.getValue(cube.indexOf("3001", "2020"))),
+                () -> assertEquals(1, cube.getValue(cube.indexOf("3002", "2020"))),
+                () -> assertTrue(cube.isMissing(cube.indexOf("3002", "2022"))));
+    }
+
+    @Test
+    void mismatchingDimensionsFail() {
+        String wrongSize = RESULT.replace("\"size\": [2, 3]", "\"size\": [2, 4]");
+        assertThrows(IOException.class, () -> JsonStat2Decoder.decode(body(wrongSize), dimensions()));
+        String tooManyValues = RESULT.replace("[1, 2.5, null, 4, 5, 6]", "[1, 2, 3, 4, 5, 6, 7]");
+        assertThrows(IOException.class, () -> JsonStat2Decoder.decode(body(tooManyValues), dimensions()));
+    }
+
+    @Test
+    void decodesJsonStatVersionOne() throws IOException {
+        String v1 = "{\"dataset\": {\"label\": \"Test\", \"dimension\": {"
+                + "\"Region\": {\"category\": {\"index\": {\"3001\": 0, \"3002\": 1}}},"
+                + "\"Tid\": {\"category\": {\"index\": {\"2020\": 0, \"2021\": 1, \"2022\": 2}}},"
+                + "\"id\": [\"Region\", \"Tid\"], \"size\": [2, 3], \"role\": {\"time\": [\"Tid\"]}},"
+                + "\"value\": [1, 2.5, null, 4, 5, 6]}}";
+        SsbTableCube cube = new SsbTableCube(dimensions());
+        ResponseFormat.JSON_STAT.decoder(dimensions()).decode(body(v1), cube);
+        assertAll("Checking the decoded json-stat 1.0 cube",
+                () -> assertEquals(2.5, cube.getValue(cube.indexOf("3001", "2021"))),
+                () -> assertTrue(cube.isMissing(cube.indexOf("3001", "2022"))));
+        String wrongSize = v1.replace("\"size\": [2, 3]", "\"size\": [3, 2]");
+        assertThrows(IOException.class, () -> ResponseFormat.JSON_STAT.decoder(dimensions()).decode(body(wrongSize), new SsbTableCube(dimensions())));
+    }
+
+    @Test
+    void eliminatedVariablesAreNotDimensions() throws IOException {
+        List<SsbMetadataVariables> variables = new ArrayList<>(dimensions());
+        variables.add(1, new SsbMetadataVariables("Kjonn", "kjønn", new ArrayList<>(), new ArrayList<>()));
+        SsbTableCube cube = JsonStat2Decoder.decode(body(RESULT), variables);
+        SparseTableCube sparse = new SparseTableCube(variables);
+        ResponseFormat.CSV2.decoder(variables).decode(body("region,år,value\n3001,2021,2.5\n"), sparse);
+        TableCubeMerger merger = new TableCubeMerger(variables);
+        TableCubeMerger.ChunkSink sink = merger.sinkFor(variables);
+        new JsonStat2Decoder(variables).decode(body(RESULT), sink);
+        sink.finish();
+        assertAll("Checking that Kjonn is left out like in the query",
+                () -> assertEquals(2, cube.getDimensions().size()),
+                () -> assertEquals(6, cube.getCellCount()),
+                () -> assertEquals(2.5, cube.getValue(cube.indexOf("3001", "2021"))),
+                () -> assertEquals(2.5, sparse.getValue(sparse.indexOf("3001", "2021"))),
+                () -> assertEquals(6, merger.getCube().getValue(merger.getCube().indexOf("3002", "2022"))));
+    }
+}
@@ -0,0 +1,54 @@
+package no.ks.fiks.ssbAPI.tableApi;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PxDecoderTest {
+
+    private static final String PX = "CHARSET=\"ANSI\";\n"
+            + "CODEPAGE=\"iso-8859-1\";\n"
+            + "TITLE=\"Innbyggere, etter region og år\";\n"
+            + "STUB=\"år\";\n"
+            + "HEADING=\"region\";\n"
+            + "VALUES(\"år\")=\"2020\",\"2021\",\"2022\";\n"
+            + "VALUES(\"region\")=\"Halden\",\"Moss\";\n"
+            + "CODES(\"region\")=\"3001\",\"3002\";\n"
+            + "VALUES[en](\"year\")=\"2020\",\"2021\",\"2022\";\n"
+            + "DATA=\n"
+            + "1 4\n"
+            + "2.5 \"..\"\n"
+            + "3 6;\n";
+
+    private static SsbTableCube decode(String px, Charset charset) throws IOException {
+        return TableFixtures.decode(ResponseFormat.PX, TableFixtures.body(px, charset), new SsbTableCube(TableFixtures.dimensions()));
+    }
+
+    @Test
+    void decodesStubAndHeadingInPxOrder() throws IOException {
+        SsbTableCube cube = decode(PX, StandardCharsets.ISO_8859_1);
+        assertAll("Checking the decoded cube",
+                () -> assertEquals(1, cube.getValue(cube.indexOf("3001", "2020"))),
+                () -> assertEquals(4, cube.getValue(cube.indexOf("3002", "2020"))),
+                () -> assertEquals(2.5, cube.getValue(cube.indexOf("3001", "2021"))),
+                () -> assertTrue(cube.isMissing(cube.indexOf("3002", "2021"))),
+                () -> assertEquals(6, cube.getValue(cube.indexOf("3002", "2022"))));
+    }
+
+    @Test
+    void decodesUtf8Files() throws IOException {
+        SsbTableCube cube = decode(PX.replace("iso-8859-1", "utf-8"), StandardCharsets.UTF_8);
+        assertEquals(3, cube.getValue(cube.indexOf("3001", "2022")));
+    }
+
+    @Test
+    void mismatchingResultsFail() {
+        assertThrows(IOException.class, () -> decode(PX.replace("3 6;", "3 6 7;"), StandardCharsets.ISO_8859_1));
+        assertThrows(IOException.class, () -> decode(PX.replace("\"3002\"", "\"9999\""), StandardCharsets.ISO_8859_1));
+        assertThrows(IOException.class, () -> decode(PX.replace("DATA=", "NOTE="), StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,73 @@
+package no.ks.fiks.ssbAPI.tableApi;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SparseTableCubeTest {
+
+    private static final String RESULT = "{\"id\": [\"Region\", \"Tid\"], \"size\": [2, 3],"
+            + "\"dimension\": {"
+            + "\"Region\": {\"category\": {\"index\": [\"3002\", \"3001\"]}},"
+            + "\"Tid\": {\"category\": {\"index\": {\"2020\": 0, \"2021\": 1, \"2022\": 2}}}},"
+            + "\"value\": [null, 2, null, 4, null, null], \"status\": {\"2\": \"..\", \"5\": \":\", \"4\": \"..\"}}";
+
+    private static SparseTableCube decode(String json) throws IOException {
+        return TableFixtures.decode(ResponseFormat.JSON_STAT2, TableFixtures.body(json), new SparseTableCube(TableFixtures.dimensions()));
+    }
+
+    @Test
+    void keepsOnlyCellsWithValuesInIndexOrder() throws IOException {
+        SparseTableCube cube = decode(RESULT);
+        assertAll("Checking the sparse cube",
+                () -> assertEquals(2, cube.getValueCount()),
+                () -> assertEquals(6, cube.getCellCount()),
+                () -> assertArrayEquals(new int[]{cube.indexOf("3001", "2020"), cube.indexOf("3002", "2021")}, cube.getIndexes()),
+                () -> assertArrayEquals(new double[]{4, 2}, cube.getValues()),
+                () -> assertEquals(2, cube.getValue(cube.indexOf("3002", "2021"))),
+                () -> assertTrue(Double.isNaN(cube.getValue(cube.indexOf("3001", "2022")))),
+                () -> assertArrayEquals(new int[]{1, 0}, cube.ordinals(cube.indexOf("3002", "2020"))));
+    }
+
+    @Test
+    void keepsStatusFlags() throws IOException {
+        SparseTableCube cube = decode(RESULT);
+        assertAll("Checking the statuses",
+                () -> assertEquals(3, cube.getStatusCount()),
+                () -> assertEquals("..", cube.getStatus(cube.indexOf("3002", "2022"))),
+                () -> assertEquals(":", cube.getStatus(cube.indexOf("3001", "2022"))),
+                () -> assertEquals("..", cube.getStatus(cube.indexOf("3001", "2021"))),
+                () -> assertNull(cube.getStatus(cube.indexOf("3001", "2020"))),
+                () -> assertArrayEquals(new String[]{"..", ":", ".."}, cube.getStatuses()));
+    }
+
+    @Test
+    void singleStatusIsForEveryCell() throws IOException {
+        SparseTableCube cube = decode(RESULT.replace("{\"2\": \"..\", \"5\": \":\", \"4\": \"..\"}", "[\"e\"]"));
+        assertAll("Checking the default status",
+                () -> assertEquals(0, cube.getStatusCount()),
+                () -> assertEquals("e", cube.getDefaultStatus()),
+                () -> assertEquals("e", cube.getStatus(cube.indexOf("3002", "2022"))));
+    }
+
+    @Test
+    void scalarStatusIsKeptOnce() throws IOException {
+        SparseTableCube cube = decode(RESULT.replace("{\"2\": \"..\", \"5\": \":\", \"4\": \"..\"}", "\"e\""));
+        assertAll("Checking the default status",
+                () -> assertEquals(0, cube.getStatusCount()),
+                () -> assertEquals("e", cube.getStatus(cube.indexOf("3001", "2020"))));
+    }
+
+    @Test
+    void statusArrayKeepsItsFirstElement() throws IOException {
+        SparseTableCube cube = decode(RESULT.replace("{\"2\": \"..\", \"5\": \":\", \"4\": \"..\"}",
+                "[\"e\", null, \":\", null, null, null]"));
+        assertAll("Checking the statuses",
+                () -> assertEquals(2, cube.getStatusCount()),
+                () -> assertNull(cube.getDefaultStatus()),
+                () -> assertEquals("e", cube.getStatus(cube.indexOf("3002", "2020"))),
+                () -> assertNull(cube.getStatus(cube.indexOf("3002", "2021"))));
+    }
+}
@@ -0,0 +1,96 @@
+package no.ks.fiks.ssbAPI.tableApi;
+
+import no.ks.fiks.ssbAPI.metadataApi.SsbMetadataVariables;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TableCubeMergerTest {
+
+    private static SsbMetadataVariables variable(String code, List<String> values) {
+        return new SsbMetadataVariables(code, code.toLowerCase(), values, values);
+    }
+
+    private static String result(List<String> regions, String values) {
+        return "{\"id\": [\"Region\", \"Tid\"], \"size\": [" + regions.size() + ", 1], \"value\": [" + values + "]}";
+    }
+
+    private static void decodeInto(TableCubeMerger merger, List<SsbMetadataVariables> chunk, String json) throws IOException {
+        TableCubeMerger.ChunkSink sink = merger.sinkFor(chunk);
+        new JsonStat2Decoder(chunk).decode(TableFixtures.body(json), sink);
+        sink.finish();
+    }
+
+    @Test
+    void chunksAreWrittenIntoTheTableCube() throws IOException {
+        List<String> regions = List.of("0101", "3001", "3002");
+        TableCubeMerger merger = new TableCubeMerger(List.of(variable("Region", regions), variable("Tid", List.of("2019", "2020"))));
+
+        List<String> regions2019 = List.of("0101");
+        List<String> regions2020 = List.of("3001", "3002");
+        decodeInto(merger, List.of(variable("Region", regions2019), variable("Tid", List.of("2019"))), result(regions2019, "7"));
+        decodeInto(merger, List.of(variable("Region", regions2020), variable("Tid", List.of("2020"))), result(regions2020, "1, null"));
+
+        SsbTableCube cube = merger.getCube();
+        assertAll("Checking the merged cube",
+                () -> assertEquals(6, cube.getCellCount()),
+                () -> assertEquals(7, cube.getValue(cube.indexOf("0101", "2019"))),
+                () -> assertEquals(1, cube.getValue(cube.indexOf("3001", "2020"))),
+                () -> assertTrue(cube.isMissing(cube.indexOf("3002", "2020"))),
+                () -> assertTrue(cube.isMissing(cube.indexOf("3001", "2019"))),
+                () -> assertEquals(4, cube.getMissingCount()));
+    }
+
+    @Test
+    void chunksAreDecodedConcurrently() throws Exception {
+        List<String> regions = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            regions.add(String.format("R%03d", i));
+        }
+        TableCubeMerger merger = new TableCubeMerger(List.of(variable("Region", regions), variable("Tid", List.of("2020"))));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> chunks = new ArrayList<>();
+            for (int i = 0; i < regions.size(); i++) {
+                List<String> chunkRegions = List.of(regions.get(i));
+                String json = result(chunkRegions, String.valueOf(i));
+                chunks.add(executor.submit(() -> {
+                    start.await();
+                    decodeInto(merger, List.of(variable("Region", chunkRegions), variable("Tid", List.of("2020"))), json);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> chunk : chunks) {
+                chunk.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        SsbTableCube cube = merger.getCube();
+        assertEquals(0, cube.getMissingCount());
+        for (int i = 0; i < regions.size(); i++) {
+            assertEquals(i, cube.getValue(cube.indexOf(regions.get(i), "2020")), "Value of " + regions.get(i));
+        }
+    }
+
+    @Test
+    void chunkOutsideTheTableFails() {
+        TableCubeMerger merger = new TableCubeMerger(List.of(variable("Region", List.of("3001")), variable("Tid", List.of("2020"))));
+        assertThrows(IllegalArgumentException.class,
+                () -> merger.sinkFor(List.of(variable("Region", List.of("3001")), variable("Tid", List.of("2021")))));
+        assertThrows(IllegalArgumentException.class,
+                () -> merger.sinkFor(List.of(variable("Tid", List.of("2020")), variable("Region", List.of("3001")))));
+    }
+}
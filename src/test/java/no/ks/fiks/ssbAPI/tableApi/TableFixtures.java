@@ -0,0 +1,67 @@
+package no.ks.fiks.ssbAPI.tableApi;
+
+import no.ks.fiks.ssbAPI.metadataApi.SsbMetadataVariables;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * <h1>TableFixtures</h1>
+ * The query the decoder and cube tests share: Region 3001 Halden and 3002 Moss, by Tid 2020 to 2022.
+ */
+final class TableFixtures {
+
+    private TableFixtures() {
+    }
+
+    /**
+     * <h1>dimensions</h1>
+     *
+     * @return Returns new Region and Tid variables, so a test can change them without changing the others.
+     */
+    static List<SsbMetadataVariables> dimensions() {
+        return List.of(
+                new SsbMetadataVariables("Region", "region", List.of("3001", "3002"), List.of("Halden", "Moss")),
+                new SsbMetadataVariables("Tid", "år", List.of("2020", "2021", "2022"), List.of("2020", "2021", "2022")));
+    }
+
+    /**
+     * <h1>body</h1>
+     *
+     * @param text This is the response body.
+     * @return Returns the body as a UTF-8 stream.
+     */
+    static InputStream body(String text) {
+        return body(text, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * <h1>body</h1>
+     *
+     * @param text    This is the response body.
+     * @param charset This is the charset the body is encoded in.
+     * @return Returns the body as a stream.
+     */
+    static InputStream body(String text, Charset charset) {
+        return new ByteArrayInputStream(text.getBytes(charset));
+    }
+
+    /**
+     * <h1>decode</h1>
+     *
+     * @param format This is the format of the body.
+     * @param body   This is the response body for {@link #dimensions()}.
+     * @param sink   This is where the cells are written.
+     * @param <T>    This is the type of the sink.
+     * @return Returns the sink.
+     * @throws IOException Throws IOException if the body doesn't match the dimensions.
+     */
+    static <T extends TableCellSink> T decode(ResponseFormat format, InputStream body, T sink) throws IOException {
+        format.decoder(dimensions()).decode(body, sink);
+        return sink;
+    }
+}